@@ -4,9 +4,8 @@ package nachos.machine;
 
 import nachos.security.*;
 
-import java.util.TreeSet;
-import java.util.Iterator;
-import java.util.SortedSet;
+import java.util.Arrays;
+import java.util.Comparator;
 
 /**
  * The <tt>Interrupt</tt> class emulates low-level interrupt hardware. The
@@ -52,7 +51,7 @@ public final class Interrupt {
 		privilege.interrupt = new InterruptPrivilege();
 
 		enabled = false;
-		pending = new TreeSet<PendingInterrupt>();
+		growPending(16);
 	}
 
 	/**
@@ -119,16 +118,150 @@ public final class Interrupt {
 		return !enabled;
 	}
 
+	/**
+	 * Idle the CPU until the next pending interrupt. Simulated time jumps
+	 * straight to the time of that interrupt, which is counted as kernel time,
+	 * and every interrupt due by then is handled before returning. Interrupts
+	 * must be disabled. This is how a tickless kernel waits when no thread is
+	 * ready to run.
+	 * 
+	 * @return <tt>false</tt> if no interrupt is pending, in which case time
+	 * does not advance.
+	 */
+	public boolean idle() {
+		Lib.assertTrue(disabled());
+
+		if (numPending == 0)
+			return false;
+
+		Stats stats = privilege.stats;
+		long ticks = nextDue - stats.totalTicks;
+
+		if (ticks > 0) {
+			stats.kernelTicks += ticks;
+			stats.totalTicks += ticks;
+
+			Lib.debug(dbgInt, "Idling until time = " + stats.totalTicks);
+		}
+
+		checkIfDue();
+
+		// a handler may have enabled interrupts; the caller expects them off
+		enabled = false;
+
+		return true;
+	}
+
 	private void schedule(long when, String type, Runnable handler) {
 		Lib.assertTrue(when > 0);
 
 		long time = privilege.stats.totalTicks + when;
-		PendingInterrupt toOccur = new PendingInterrupt(time, type, handler);
 
-		Lib.debug(dbgInt, "Scheduling the " + type
-				+ " interrupt handler at time = " + time);
+		if (Lib.test(dbgInt))
+			Lib.debug(dbgInt, "Scheduling the " + type
+					+ " interrupt handler at time = " + time);
+
+		if (numPending == heap.length)
+			growPending(heap.length * 2);
+
+		int entry = freeEntries[--numFree];
+		pendingTime[entry] = time;
+		pendingId[entry] = numPendingInterruptsCreated++;
+		pendingType[entry] = type;
+		pendingHandler[entry] = handler;
+
+		siftUp(numPending++, entry);
+		nextDue = pendingTime[heap[0]];
+	}
+
+	/**
+	 * Grow the pending interrupt pool to hold <i>capacity</i> entries. This is
+	 * the only time the interrupt queue allocates memory.
+	 */
+	private void growPending(int capacity) {
+		int oldCapacity = (heap == null) ? 0 : heap.length;
+
+		if (heap == null) {
+			heap = new int[capacity];
+			freeEntries = new int[capacity];
+			pendingTime = new long[capacity];
+			pendingId = new long[capacity];
+			pendingType = new String[capacity];
+			pendingHandler = new Runnable[capacity];
+		}
+		else {
+			heap = Arrays.copyOf(heap, capacity);
+			freeEntries = Arrays.copyOf(freeEntries, capacity);
+			pendingTime = Arrays.copyOf(pendingTime, capacity);
+			pendingId = Arrays.copyOf(pendingId, capacity);
+			pendingType = Arrays.copyOf(pendingType, capacity);
+			pendingHandler = Arrays.copyOf(pendingHandler, capacity);
+		}
+
+		// every entry added to the pool is free
+		for (int i = oldCapacity; i < capacity; i++)
+			freeEntries[numFree++] = i;
+	}
+
+	/**
+	 * Return <tt>true</tt> if pending interrupt entry <i>a</i> must occur
+	 * before entry <i>b</i>. Interrupts scheduled for the same time occur in
+	 * the order they were scheduled.
+	 */
+	private boolean before(int a, int b) {
+		if (pendingTime[a] != pendingTime[b])
+			return pendingTime[a] < pendingTime[b];
+
+		return pendingId[a] < pendingId[b];
+	}
+
+	private void siftUp(int index, int entry) {
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (!before(entry, heap[parent]))
+				break;
+
+			heap[index] = heap[parent];
+			index = parent;
+		}
+
+		heap[index] = entry;
+	}
+
+	private void siftDown(int index, int entry) {
+		int half = numPending >>> 1;
+
+		while (index < half) {
+			int child = 2 * index + 1;
+			if (child + 1 < numPending && before(heap[child + 1], heap[child]))
+				child++;
+
+			if (!before(heap[child], entry))
+				break;
+
+			heap[index] = heap[child];
+			index = child;
+		}
+
+		heap[index] = entry;
+	}
+
+	/**
+	 * Remove the earliest pending interrupt from the queue and return its
+	 * entry to the pool. The caller must use the entry before the next call
+	 * to <tt>schedule()</tt>.
+	 */
+	private int removeFirst() {
+		int first = heap[0];
+
+		int last = heap[--numPending];
+		if (numPending > 0)
+			siftDown(0, last);
 
-		pending.add(toOccur);
+		nextDue = (numPending > 0) ? pendingTime[heap[0]] : Long.MAX_VALUE;
+
+		freeEntries[numFree++] = first;
+		return first;
 	}
 
 	private void tick(boolean inKernelMode) {
@@ -145,12 +278,58 @@ public final class Interrupt {
 
 		if (Lib.test(dbgInt))
 			System.out.println("== Tick " + stats.totalTicks + " ==");
+		// nothing is due, so there is nothing for checkIfDue() to do
+		else if (stats.totalTicks < nextDue) {
+			enabled = true;
+			return;
+		}
+
+		enabled = false;
+		checkIfDue();
+		enabled = true;
+	}
+
+	private void tick(boolean inKernelMode, int ticks) {
+		Lib.assertTrue(ticks >= 0);
+
+		// keep the per-tick trace identical when it is being printed
+		if (Lib.test(dbgInt)) {
+			for (int i = 0; i < ticks; i++)
+				tick(inKernelMode);
+			return;
+		}
+
+		if (ticks == 0)
+			return;
+
+		Stats stats = privilege.stats;
+
+		if (inKernelMode) {
+			stats.kernelTicks += (long) Stats.KernelTick * ticks;
+			stats.totalTicks += (long) Stats.KernelTick * ticks;
+		}
+		else {
+			stats.userTicks += (long) Stats.UserTick * ticks;
+			stats.totalTicks += (long) Stats.UserTick * ticks;
+		}
+
+		if (stats.totalTicks < nextDue) {
+			enabled = true;
+			return;
+		}
 
 		enabled = false;
 		checkIfDue();
 		enabled = true;
 	}
 
+	private long ticksUntilNextInterrupt() {
+		if (numPending == 0)
+			return Long.MAX_VALUE;
+
+		return Math.max(0, nextDue - privilege.stats.totalTicks);
+	}
+
 	private void checkIfDue() {
 		long time = privilege.stats.totalTicks;
 
@@ -159,27 +338,24 @@ public final class Interrupt {
 		if (Lib.test(dbgInt))
 			print();
 
-		if (pending.isEmpty())
-			return;
-
-		if (((PendingInterrupt) pending.first()).time > time)
+		if (nextDue > time)
 			return;
 
 		Lib.debug(dbgInt, "Invoking interrupt handlers at time = " + time);
 
-		while (!pending.isEmpty()
-				&& ((PendingInterrupt) pending.first()).time <= time) {
-			PendingInterrupt next = (PendingInterrupt) pending.first();
-			pending.remove(next);
-
-			Lib.assertTrue(next.time <= time);
+		while (nextDue <= time) {
+			int next = removeFirst();
+			String type = pendingType[next];
+			Runnable handler = pendingHandler[next];
+			pendingType[next] = null;
+			pendingHandler[next] = null;
 
 			if (privilege.processor != null)
 				privilege.processor.flushPipe();
 
-			Lib.debug(dbgInt, "  " + next.type);
+			Lib.debug(dbgInt, "  " + type);
 
-			next.handler.run();
+			handler.run();
 		}
 
 		Lib.debug(dbgInt, "  (end of list)");
@@ -190,55 +366,60 @@ public final class Interrupt {
 				+ ", interrupts " + (enabled ? "on" : "off"));
 		System.out.println("Pending interrupts:");
 
-		for (Iterator i = pending.iterator(); i.hasNext();) {
-			PendingInterrupt toOccur = (PendingInterrupt) i.next();
-			System.out.println("  " + toOccur.type + ", scheduled at "
-					+ toOccur.time);
+		Integer[] sorted = new Integer[numPending];
+		for (int i = 0; i < numPending; i++)
+			sorted[i] = heap[i];
+
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if (a.equals(b))
+					return 0;
+
+				return before(a, b) ? -1 : 1;
+			}
+		});
+
+		for (int i = 0; i < sorted.length; i++) {
+			System.out.println("  " + pendingType[sorted[i]]
+					+ ", scheduled at " + pendingTime[sorted[i]]);
 		}
 
 		System.out.println("  (end of list)");
 	}
 
-	private class PendingInterrupt implements Comparable {
-		PendingInterrupt(long time, String type, Runnable handler) {
-			this.time = time;
-			this.type = type;
-			this.handler = handler;
-			this.id = numPendingInterruptsCreated++;
-		}
+	private long numPendingInterruptsCreated = 0;
 
-		public int compareTo(Object o) {
-			PendingInterrupt toOccur = (PendingInterrupt) o;
+	private Privilege privilege;
 
-			// can't return 0 for unequal objects, so check all fields
-			if (time < toOccur.time)
-				return -1;
-			else if (time > toOccur.time)
-				return 1;
-			else if (id < toOccur.id)
-				return -1;
-			else if (id > toOccur.id)
-				return 1;
-			else
-				return 0;
-		}
+	private boolean enabled;
 
-		long time;
+	/**
+	 * A binary min-heap of pending interrupt entries, ordered by time and then
+	 * by the order in which they were scheduled. Each entry indexes the
+	 * <tt>pending</tt> arrays below; unused entries are kept in
+	 * <tt>freeEntries</tt> so scheduling an interrupt does not allocate.
+	 */
+	private int[] heap;
 
-		String type;
+	private int numPending = 0;
 
-		Runnable handler;
+	private int[] freeEntries;
 
-		private long id;
-	}
+	private int numFree = 0;
 
-	private long numPendingInterruptsCreated = 0;
+	private long[] pendingTime;
 
-	private Privilege privilege;
+	private long[] pendingId;
 
-	private boolean enabled;
+	private String[] pendingType;
+
+	private Runnable[] pendingHandler;
 
-	private TreeSet<PendingInterrupt> pending;
+	/**
+	 * The time of the earliest pending interrupt, or <tt>Long.MAX_VALUE</tt>
+	 * if none are pending.
+	 */
+	private long nextDue = Long.MAX_VALUE;
 
 	private static final char dbgInt = 'i';
 
@@ -250,5 +431,13 @@ public final class Interrupt {
 		public void tick(boolean inKernelMode) {
 			Interrupt.this.tick(inKernelMode);
 		}
+
+		public void tick(boolean inKernelMode, int ticks) {
+			Interrupt.this.tick(inKernelMode, ticks);
+		}
+
+		public long ticksUntilNextInterrupt() {
+			return Interrupt.this.ticksUntilNextInterrupt();
+		}
 	}
 }
@@ -57,6 +57,31 @@ public final class Lib {
 		return random.nextInt(range);
 	}
 
+	/**
+	 * Return a random long between 0 and <i>range - 1</i>. Draws from the same
+	 * generator as <tt>random(int)</tt>, and for ranges that fit in an
+	 * <tt>int</tt> returns the same value <tt>random(int)</tt> would.
+	 * 
+	 * @param range a positive value specifying the number of possible return
+	 * values.
+	 * @return a random long in the specified range.
+	 */
+	public static long random(long range) {
+		assertTrue(range > 0);
+
+		if (range <= Integer.MAX_VALUE)
+			return random.nextInt((int) range);
+
+		// reject the draws from the incomplete last copy of the range
+		long bits, value;
+		do {
+			bits = random.nextLong() >>> 1;
+			value = bits % range;
+		} while (bits - value + (range - 1) < 0);
+
+		return value;
+	}
+
 	/**
 	 * Return a random double between 0.0 (inclusive) and 1.0 (exclusive).
 	 * 
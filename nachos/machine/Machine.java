@@ -6,6 +6,7 @@ import nachos.security.*;
 import nachos.ag.*;
 
 import java.io.File;
+import java.util.ArrayList;
 
 /**
  * The master class of the simulated machine. Processes command line arguments,
@@ -109,9 +110,34 @@ public final class Machine {
 	public static void halt() {
 		System.out.print("Machine halting!\n\n");
 		stats.print();
+		for (Runnable report : haltReports)
+			report.run();
 		terminate();
 	}
 
+	/**
+	 * Register a report to be printed by <tt>halt()</tt>, after the machine
+	 * statistics. Reports are printed in the order they were added.
+	 * 
+	 * @param report the code that prints the report.
+	 */
+	public static void addHaltReport(Runnable report) {
+		haltReports.add(report);
+	}
+
+	/**
+	 * Record that a real-time job has finished, for the statistics printed by
+	 * <tt>halt()</tt>.
+	 * 
+	 * @param missedDeadline <tt>true</tt> if the job finished after its
+	 * deadline.
+	 */
+	public static void recordRealTimeJob(boolean missedDeadline) {
+		stats.numRealTimeJobs++;
+		if (missedDeadline)
+			stats.numDeadlineMisses++;
+	}
+
 	/**
 	 * Return an array containing all command line arguments.
 	 * 
@@ -444,6 +470,8 @@ public final class Machine {
 
 	private static Stats stats = new Stats();
 
+	private static ArrayList<Runnable> haltReports = new ArrayList<Runnable>();
+
 	private static int numPhysPages = -1;
 
 	private static long randomSeed = 0;
@@ -136,6 +136,124 @@ public class OpenFile {
 		return -1;
 	}
 
+	/**
+	 * Read this file starting at the specified position directly into several
+	 * regions of one buffer, in order, and return the total number of bytes
+	 * read. Region <i>i</i> starts at <tt>offsets[i]</tt> and is
+	 * <tt>lengths[i]</tt> bytes long. This lets the kernel read straight into
+	 * the physical pages behind a user buffer. Stops early at the end of the
+	 * file. If no bytes could be read because of a fatal error, returns -1.
+	 * 
+	 * <p>
+	 * The default implementation calls <tt>read(int, byte[], int, int)</tt>
+	 * once per region. File systems that can do better should override it.
+	 * 
+	 * @param pos the offset in the file at which to start reading.
+	 * @param buf the buffer to store the bytes in, usually main memory.
+	 * @param offsets the offset in the buffer of each region.
+	 * @param lengths the length of each region.
+	 * @param count the number of regions.
+	 * @return the actual number of bytes successfully read, or -1 on failure.
+	 */
+	public int readScatter(int pos, byte[] buf, int[] offsets, int[] lengths,
+			int count) {
+		int total = 0;
+		for (int i = 0; i < count; i++) {
+			int amount = read(pos + total, buf, offsets[i], lengths[i]);
+			if (amount == -1)
+				return (total == 0) ? -1 : total;
+
+			total += amount;
+			if (amount < lengths[i])
+				break;
+		}
+
+		return total;
+	}
+
+	/**
+	 * Write several regions of one buffer, in order, to this file starting at
+	 * the specified position, and return the total number of bytes written.
+	 * The regions are described as for <tt>readScatter()</tt>. If no bytes
+	 * could be written because of a fatal error, returns -1.
+	 * 
+	 * @param pos the offset in the file at which to start writing.
+	 * @param buf the buffer to get the bytes from, usually main memory.
+	 * @param offsets the offset in the buffer of each region.
+	 * @param lengths the length of each region.
+	 * @param count the number of regions.
+	 * @return the actual number of bytes successfully written, or -1 on
+	 * failure.
+	 */
+	public int writeGather(int pos, byte[] buf, int[] offsets, int[] lengths,
+			int count) {
+		int total = 0;
+		for (int i = 0; i < count; i++) {
+			int amount = write(pos + total, buf, offsets[i], lengths[i]);
+			if (amount == -1)
+				return (total == 0) ? -1 : total;
+
+			total += amount;
+			if (amount < lengths[i])
+				break;
+		}
+
+		return total;
+	}
+
+	/**
+	 * Read this file starting at the current file pointer into several
+	 * regions of one buffer, as for <tt>readScatter(int, ...)</tt>, and
+	 * advance the file pointer by the number of bytes read.
+	 * 
+	 * @param buf the buffer to store the bytes in, usually main memory.
+	 * @param offsets the offset in the buffer of each region.
+	 * @param lengths the length of each region.
+	 * @param count the number of regions.
+	 * @return the actual number of bytes successfully read, or -1 on failure.
+	 */
+	public int readScatter(byte[] buf, int[] offsets, int[] lengths, int count) {
+		int total = 0;
+		for (int i = 0; i < count; i++) {
+			int amount = read(buf, offsets[i], lengths[i]);
+			if (amount == -1)
+				return (total == 0) ? -1 : total;
+
+			total += amount;
+			if (amount < lengths[i])
+				break;
+		}
+
+		return total;
+	}
+
+	/**
+	 * Write several regions of one buffer to this file starting at the
+	 * current file pointer, as for <tt>writeGather(int, ...)</tt>, and
+	 * advance the file pointer by the number of bytes written.
+	 * 
+	 * @param buf the buffer to get the bytes from, usually main memory.
+	 * @param offsets the offset in the buffer of each region.
+	 * @param lengths the length of each region.
+	 * @param count the number of regions.
+	 * @return the actual number of bytes successfully written, or -1 on
+	 * failure.
+	 */
+	public int writeGather(byte[] buf, int[] offsets, int[] lengths, int count) {
+		int total = 0;
+		for (int i = 0; i < count; i++) {
+			int amount = write(buf, offsets[i], lengths[i]);
+			if (amount == -1)
+				return (total == 0) ? -1 : total;
+
+			total += amount;
+			if (amount < lengths[i])
+				break;
+		}
+
+		return total;
+	}
+
 	private FileSystem fileSystem;
 
 	private String name;
@@ -51,6 +51,32 @@ public abstract class OpenFileWithPosition extends OpenFile {
 		return amount;
 	}
 
+	/**
+	 * Read into several regions of <i>buf</i> starting at the file pointer,
+	 * and advance the file pointer by the number of bytes read.
+	 */
+	public int readScatter(byte[] buf, int[] offsets, int[] lengths, int count) {
+		int amount = readScatter(position, buf, offsets, lengths, count);
+		if (amount == -1)
+			return -1;
+
+		position += amount;
+		return amount;
+	}
+
+	/**
+	 * Write several regions of <i>buf</i> starting at the file pointer, and
+	 * advance the file pointer by the number of bytes written.
+	 */
+	public int writeGather(byte[] buf, int[] offsets, int[] lengths, int count) {
+		int amount = writeGather(position, buf, offsets, lengths, count);
+		if (amount == -1)
+			return -1;
+
+		position += amount;
+		return amount;
+	}
+
 	/**
 	 * The current value of the file pointer.
 	 */
@@ -47,7 +47,31 @@ public final class Processor {
 
 		mainMemory = new byte[pageSize * numPhysPages];
 
+		decodedPages = new DecodedInstruction[numPhysPages][];
+
+		String engine = Config.getString("Processor.engine", "interpreter");
+		Lib.assertTrue(engine.equals("interpreter") || engine.equals("block"),
+				"Processor.engine must be interpreter or block");
+
+		usingBlockEngine = engine.equals("block");
+		usingBatchedTicks = Config.getBoolean("Processor.batchTicks", true);
+		if (usingBlockEngine) {
+			translatedPages = new TranslatedPage[numPhysPages];
+			blockInterpreter = new Instruction();
+		}
+
 		if (usingTLB) {
+			tlbSize = Config.getInteger("Processor.TLB.size", tlbSize);
+			tlbAssociativity = Config.getInteger("Processor.TLB.associativity",
+					tlbSize);
+			Lib.assertTrue(tlbSize > 0 && tlbAssociativity > 0
+					&& tlbSize % tlbAssociativity == 0,
+					"Processor.TLB.size must be a positive multiple of Processor.TLB.associativity");
+			tlbSets = tlbSize / tlbAssociativity;
+
+			privilege.stats.tlbSetHits = new long[tlbSets];
+			privilege.stats.tlbSetMisses = new long[tlbSets];
+
 			translations = new TranslationEntry[tlbSize];
 			for (int i = 0; i < tlbSize; i++)
 				translations[i] = new TranslationEntry();
@@ -91,6 +115,16 @@ public final class Processor {
 
 		Machine.autoGrader().runProcessor(privilege);
 
+		// the block engine does not produce the per-instruction trace
+		if (usingBlockEngine && !Lib.test(dbgProcessor)
+				&& !Lib.test(dbgDisassemble) && !Lib.test(dbgFullDisassemble))
+			runBlocks();
+
+		// batching would reorder the trace with the tick trace
+		if (usingBatchedTicks && !Lib.test(dbgProcessor)
+				&& !Lib.test(dbgDisassemble) && !Lib.test(dbgFullDisassemble))
+			runBatched();
+
 		Instruction inst = new Instruction();
 
 		while (true) {
@@ -174,6 +208,11 @@ public final class Processor {
 	public void setPageTable(TranslationEntry[] pageTable) {
 		Lib.assertTrue(!usingTLB);
 
+		if (pageTable != translations)
+			flushDecodedInstructions();
+
+		flushMicroTLB();
+
 		this.translations = pageTable;
 	}
 
@@ -188,6 +227,37 @@ public final class Processor {
 		return tlbSize;
 	}
 
+	/**
+	 * Return the number of entries in each set of this processor's TLB. A TLB
+	 * whose associativity equals its size is fully associative.
+	 * 
+	 * @return the associativity of this processor's TLB.
+	 */
+	public int getTLBAssociativity() {
+		Lib.assertTrue(usingTLB);
+
+		return tlbAssociativity;
+	}
+
+	/**
+	 * Return the set of the TLB that can hold a translation for the specified
+	 * virtual page. The entries of set <i>s</i> are numbered
+	 * <tt>s*getTLBAssociativity()</tt> through
+	 * <tt>(s+1)*getTLBAssociativity()-1</tt>.
+	 * 
+	 * @param vpn the virtual page number.
+	 * @return the TLB set for <i>vpn</i>.
+	 */
+	public int getTLBSet(int vpn) {
+		Lib.assertTrue(usingTLB);
+
+		return tlbSetOf(vpn);
+	}
+
+	private int tlbSetOf(int vpn) {
+		return ((vpn ^ (vpn >>> 7)) & 0x7FFFFFFF) % tlbSets;
+	}
+
 	/**
 	 * Returns the specified TLB entry.
 	 * 
@@ -205,8 +275,12 @@ public final class Processor {
 	 * Fill the specified TLB entry.
 	 * 
 	 * <p>
-	 * The TLB is fully associative, so the location of an entry within the TLB
-	 * does not affect anything.
+	 * The TLB is divided into sets of <tt>getTLBAssociativity()</tt> entries
+	 * each, and a translation for a virtual page is only looked for in the set
+	 * returned by <tt>getTLBSet()</tt>; an entry written to any other set will
+	 * never match. With the default configuration the TLB is fully
+	 * associative, so the location of an entry within the TLB does not affect
+	 * anything.
 	 * 
 	 * @param number the index into the TLB.
 	 * @param entry the new contents of the TLB entry.
@@ -215,6 +289,9 @@ public final class Processor {
 		Lib.assertTrue(usingTLB);
 		Lib.assertTrue(number >= 0 && number < tlbSize);
 
+		invalidateMicroTLB(translations[number].vpn);
+		invalidateMicroTLB(entry.vpn);
+
 		translations[number] = new TranslationEntry(entry);
 	}
 
@@ -292,6 +369,33 @@ public final class Processor {
 	 */
 	private int translate(int vaddr, int size, boolean writing)
 			throws MipsException {
+		// fast path: an aligned access to a recently translated page
+		if ((vaddr & (size - 1)) == 0 && !Lib.test(dbgProcessor)) {
+			int vpn = vaddr >>> pageShift;
+			int slot = vpn & (microTLBSize - 1);
+			TranslationEntry entry = microTLBEntries[slot];
+
+			/*
+			 * The kernel may modify its page table entries in place, so the
+			 * cached entry must still be the one in the page table, and its
+			 * fields are checked on every hit just like the slow path does.
+			 */
+			if (entry != null && microTLBPages[slot] == vpn && entry.valid
+					&& !(writing && entry.readOnly)
+					&& (usingTLB || translations[vpn] == entry)) {
+				int ppn = entry.ppn;
+				if (ppn >= 0 && ppn < numPhysPages) {
+					entry.used = true;
+					if (writing)
+						entry.dirty = true;
+					if (usingTLB)
+						privilege.stats.tlbSetHits[microTLBSets[slot]]++;
+
+					return (ppn << pageShift) | (vaddr & (pageSize - 1));
+				}
+			}
+		}
+
 		if (Lib.test(dbgProcessor))
 			System.out.println("\ttranslate vaddr=0x" + Lib.toHexString(vaddr)
 					+ (writing ? ", write" : ", read..."));
@@ -307,6 +411,7 @@ public final class Processor {
 		int offset = offsetFromAddress(vaddr);
 
 		TranslationEntry entry = null;
+		int set = 0;
 
 		// if not using a TLB, then the vpn is an index into the table
 		if (!usingTLB) {
@@ -319,9 +424,10 @@ public final class Processor {
 
 			entry = translations[vpn];
 		}
-		// else, look through all TLB entries for matching vpn
+		// else, look through the ways of vpn's TLB set for a matching entry
 		else {
-			for (int i = 0; i < tlbSize; i++) {
+			set = tlbSetOf(vpn);
+			for (int i = set * tlbAssociativity, end = i + tlbAssociativity; i < end; i++) {
 				if (translations[i].valid && translations[i].vpn == vpn) {
 					entry = translations[i];
 					break;
@@ -329,6 +435,7 @@ public final class Processor {
 			}
 			if (entry == null) {
 				privilege.stats.numTLBMisses++;
+				privilege.stats.tlbSetMisses[set]++;
 				Lib.debug(dbgProcessor, "\t\tTLB miss");
 				throw new MipsException(exceptionTLBMiss, vaddr);
 			}
@@ -352,6 +459,14 @@ public final class Processor {
 		if (writing)
 			entry.dirty = true;
 
+		if (usingTLB)
+			privilege.stats.tlbSetHits[set]++;
+
+		int slot = vpn & (microTLBSize - 1);
+		microTLBPages[slot] = vpn;
+		microTLBSets[slot] = set;
+		microTLBEntries[slot] = entry;
+
 		int paddr = (ppn * pageSize) + offset;
 
 		if (Lib.test(dbgProcessor))
@@ -359,6 +474,25 @@ public final class Processor {
 		return paddr;
 	}
 
+	/**
+	 * Forget any micro-TLB translation for the specified virtual page.
+	 * 
+	 * @param vpn the virtual page number.
+	 */
+	private void invalidateMicroTLB(int vpn) {
+		int slot = vpn & (microTLBSize - 1);
+		if (microTLBPages[slot] == vpn)
+			microTLBEntries[slot] = null;
+	}
+
+	/**
+	 * Forget all micro-TLB translations.
+	 */
+	private void flushMicroTLB() {
+		for (int i = 0; i < microTLBSize; i++)
+			microTLBEntries[i] = null;
+	}
+
 	/**
 	 * Read </i>size</i> (1, 2, or 4) bytes of virtual memory at <i>vaddr</i>,
 	 * and return the result.
@@ -402,7 +536,556 @@ public final class Processor {
 
 		Lib.assertTrue(size == 1 || size == 2 || size == 4);
 
-		Lib.bytesFromInt(mainMemory, translate(vaddr, size, true), size, value);
+		int paddr = translate(vaddr, size, true);
+		Lib.bytesFromInt(mainMemory, paddr, size, value);
+
+		invalidateDecodedInstruction(paddr);
+		invalidateTranslatedBlocks(paddr);
+	}
+
+	/**
+	 * Return the decoded form of the instruction word <i>value</i>, which was
+	 * fetched from physical address <i>paddr</i>. The decoded instruction is
+	 * taken from the cache if it is present and still matches <i>value</i>;
+	 * otherwise the word is decoded and cached.
+	 * 
+	 * <p>
+	 * Comparing against the fetched word keeps the cache coherent even when
+	 * the kernel writes main memory directly (e.g. when loading a program).
+	 * 
+	 * @param paddr the physical address the instruction was fetched from.
+	 * @param value the instruction word at that address.
+	 * @return the decoded instruction.
+	 */
+	private DecodedInstruction decodeInstruction(int paddr, int value) {
+		DecodedInstruction[] page = decodedPages[paddr / pageSize];
+		if (page == null) {
+			page = new DecodedInstruction[pageSize / 4];
+			decodedPages[paddr / pageSize] = page;
+		}
+
+		int index = (paddr % pageSize) / 4;
+		DecodedInstruction decoded = page[index];
+		if (decoded == null || decoded.value != value) {
+			decoded = new DecodedInstruction(value);
+			page[index] = decoded;
+		}
+
+		return decoded;
+	}
+
+	/**
+	 * Discard the cached decoded instruction, if any, that contains the
+	 * specified physical address. Called whenever the processor stores to
+	 * memory.
+	 * 
+	 * @param paddr the physical address that was written.
+	 */
+	private void invalidateDecodedInstruction(int paddr) {
+		DecodedInstruction[] page = decodedPages[paddr / pageSize];
+		if (page != null)
+			page[(paddr % pageSize) / 4] = null;
+	}
+
+	/**
+	 * Discard all cached decoded instructions and translated blocks.
+	 */
+	private void flushDecodedInstructions() {
+		for (int i = 0; i < numPhysPages; i++)
+			decodedPages[i] = null;
+
+		if (translatedPages != null) {
+			for (int i = 0; i < numPhysPages; i++)
+				translatedPages[i] = null;
+		}
+	}
+
+	/**
+	 * Interpret user instructions, but account for their ticks in batches.
+	 * Each batch runs exactly as many instructions as it takes to reach the
+	 * next pending interrupt, so the interrupt is delivered after the same
+	 * instruction, at the same simulated time, as when ticking once per
+	 * instruction. A batch ends early on an exception, after settling the
+	 * ticks of the instructions that completed.
+	 */
+	private void runBatched() {
+		Instruction inst = new Instruction();
+
+		while (true) {
+			long until = privilege.interrupt.ticksUntilNextInterrupt();
+			long needed = until / Stats.UserTick
+					+ (until % Stats.UserTick != 0 ? 1 : 0);
+			int batch = (int) Math.min(Math.max(1, needed), Integer.MAX_VALUE);
+			int executed = 0;
+
+			try {
+				while (executed < batch) {
+					inst.run();
+					executed++;
+				}
+			}
+			catch (MipsException e) {
+				privilege.interrupt.tick(false, executed);
+				e.handle();
+				privilege.interrupt.tick(false);
+				continue;
+			}
+
+			privilege.interrupt.tick(false, executed);
+		}
+	}
+
+	/**
+	 * Execute user code one basic block at a time. Never returns.
+	 * 
+	 * <p>
+	 * A block is only run as a unit if every one of its instructions can
+	 * execute before the next pending interrupt falls due, so interrupts are
+	 * delivered at exactly the same simulated time as with the interpreter.
+	 * Otherwise, and whenever the PC is in a delay slot, a single instruction
+	 * is interpreted instead.
+	 */
+	private void runBlocks() {
+		Instruction inst = new Instruction();
+
+		while (true) {
+			Block block;
+
+			try {
+				block = findBlock();
+			}
+			catch (MipsException e) {
+				e.handle();
+				privilege.interrupt.tick(false);
+				continue;
+			}
+
+			if (block == null
+					|| (long) block.ops.length * Stats.UserTick > privilege.interrupt
+							.ticksUntilNextInterrupt()) {
+				try {
+					inst.run();
+				}
+				catch (MipsException e) {
+					e.handle();
+				}
+
+				privilege.interrupt.tick(false);
+				continue;
+			}
+
+			runBlock(block);
+		}
+	}
+
+	/**
+	 * Return the translated block starting at the current PC, translating it
+	 * first if necessary. Returns <tt>null</tt> if the PC is in a delay slot,
+	 * since a block assumes that each instruction follows the previous one.
+	 * 
+	 * @return the block at the current PC, or <tt>null</tt>.
+	 * @exception MipsException if the PC could not be translated.
+	 */
+	private Block findBlock() throws MipsException {
+		int pc = registers[regPC];
+		if (registers[regNextPC] != pc + 4)
+			return null;
+
+		int paddr = translate(pc, 4, false);
+
+		TranslatedPage page = translatedPages[paddr / pageSize];
+		if (page == null) {
+			page = new TranslatedPage();
+			translatedPages[paddr / pageSize] = page;
+		}
+
+		int index = (paddr % pageSize) / 4;
+		Block block = page.blocks[index];
+		if (block == null || !block.matches(paddr)) {
+			block = translateBlock(paddr);
+			page.blocks[index] = block;
+
+			for (int i = 0; i < block.words.length; i++)
+				page.translated[index + i] = true;
+		}
+
+		return block;
+	}
+
+	/**
+	 * Translate the block starting at the specified physical address. The
+	 * block ends with the delay slot of the first branch or jump, with the
+	 * first instruction that always raises an exception, at the end of the
+	 * page, or after <tt>maxBlockLength</tt> instructions, whichever comes
+	 * first.
+	 * 
+	 * @param paddr the physical address of the first instruction.
+	 * @return the translated block.
+	 */
+	private Block translateBlock(int paddr) {
+		int pageEnd = (paddr / pageSize + 1) * pageSize;
+		int length = Math.min(maxBlockLength, (pageEnd - paddr) / 4);
+
+		int[] words = new int[length];
+		BlockOp[] ops = new BlockOp[length];
+
+		int count = 0;
+		boolean inDelaySlot = false;
+
+		while (count < length) {
+			int word = Lib.bytesToInt(mainMemory, paddr + count * 4);
+			DecodedInstruction decoded = decodeInstruction(paddr + count * 4,
+					word);
+
+			words[count] = word;
+			ops[count] = compile(decoded);
+			count++;
+
+			if (inDelaySlot)
+				break;
+
+			if (Lib.test(Mips.BRANCH, decoded.flags))
+				inDelaySlot = true;
+			else if (decoded.operation == Mips.SYSCALL
+					|| decoded.operation == Mips.UNIMPL
+					|| decoded.operation == Mips.INVALID)
+				break;
+		}
+
+		if (count < length) {
+			int[] trimmedWords = new int[count];
+			BlockOp[] trimmedOps = new BlockOp[count];
+			System.arraycopy(words, 0, trimmedWords, 0, count);
+			System.arraycopy(ops, 0, trimmedOps, 0, count);
+			words = trimmedWords;
+			ops = trimmedOps;
+		}
+
+		return new Block(words, ops);
+	}
+
+	/**
+	 * Run the specified block, then account for the ticks it used in one
+	 * update. If an instruction raises an exception, the ticks of the
+	 * instructions before it are accounted for first, then the exception is
+	 * handled and the faulting instruction's tick is taken, just as the
+	 * interpreter would. The block also stops early if it overwrites one of
+	 * the instructions that has been translated on its page.
+	 * 
+	 * @param block the block to run.
+	 */
+	private void runBlock(Block block) {
+		BlockOp[] ops = block.ops;
+		int executed = 0;
+
+		blockInvalidated = false;
+
+		try {
+			while (executed < ops.length) {
+				ops[executed].execute();
+				executed++;
+
+				if (blockInvalidated)
+					break;
+			}
+		}
+		catch (MipsException e) {
+			privilege.interrupt.tick(false, executed);
+			e.handle();
+			privilege.interrupt.tick(false);
+			return;
+		}
+
+		privilege.interrupt.tick(false, executed);
+	}
+
+	/**
+	 * Discard every translated block on the page containing <i>paddr</i>, if
+	 * any block on that page covers the word at <i>paddr</i>. Called whenever
+	 * the processor stores to memory.
+	 * 
+	 * @param paddr the physical address that was written.
+	 */
+	private void invalidateTranslatedBlocks(int paddr) {
+		if (translatedPages == null)
+			return;
+
+		TranslatedPage page = translatedPages[paddr / pageSize];
+		if (page != null && page.translated[(paddr % pageSize) / 4]) {
+			translatedPages[paddr / pageSize] = null;
+			blockInvalidated = true;
+		}
+	}
+
+	/**
+	 * Finish an operation that writes a general purpose register: complete any
+	 * delayed load, write the result, and advance the PC.
+	 * 
+	 * @param dstReg the register to write.
+	 * @param result the value to write.
+	 */
+	private void writeBackResult(int dstReg, int result) {
+		finishLoad();
+
+		if (dstReg != 0)
+			registers[dstReg] = result;
+
+		advancePC(registers[regNextPC] + 4);
+	}
+
+	/**
+	 * Compile a decoded instruction into a block operation. The common
+	 * arithmetic, memory, branch and jump instructions get their own
+	 * operation; the rest (multiply and divide, unaligned accesses, signed
+	 * arithmetic that can overflow, linking branches, and anything that always
+	 * raises an exception) are run by the interpreter.
+	 * 
+	 * @param decoded the instruction to compile.
+	 * @return the block operation that executes the instruction.
+	 */
+	private BlockOp compile(final DecodedInstruction decoded) {
+		final int rs = decoded.rs, rt = decoded.rt, dstReg = decoded.dstReg;
+		final int sh = decoded.sh, imm = decoded.imm;
+		final int flags = decoded.flags;
+		final boolean src2Imm = Lib.test(Mips.SRC2IMM, flags);
+		final boolean src1Sh = Lib.test(Mips.SRC1SH, flags);
+
+		boolean special = Lib.test(Mips.OVERFLOW, flags)
+				|| (Lib.test(Mips.LINK, flags) && decoded.operation != Mips.JUMP);
+
+		if (!special) {
+			switch (decoded.operation) {
+			case Mips.ADD:
+				if (src2Imm)
+					return new BlockOp() {
+						void execute() {
+							writeBackResult(dstReg, registers[rs] + imm);
+						}
+					};
+				return new BlockOp() {
+					void execute() {
+						writeBackResult(dstReg, registers[rs] + registers[rt]);
+					}
+				};
+			case Mips.SUB:
+				return new BlockOp() {
+					void execute() {
+						writeBackResult(dstReg, registers[rs] - registers[rt]);
+					}
+				};
+			case Mips.AND:
+				if (src2Imm)
+					return new BlockOp() {
+						void execute() {
+							writeBackResult(dstReg, registers[rs] & imm);
+						}
+					};
+				return new BlockOp() {
+					void execute() {
+						writeBackResult(dstReg, registers[rs] & registers[rt]);
+					}
+				};
+			case Mips.OR:
+				if (src2Imm)
+					return new BlockOp() {
+						void execute() {
+							writeBackResult(dstReg, registers[rs] | imm);
+						}
+					};
+				return new BlockOp() {
+					void execute() {
+						writeBackResult(dstReg, registers[rs] | registers[rt]);
+					}
+				};
+			case Mips.XOR:
+				if (src2Imm)
+					return new BlockOp() {
+						void execute() {
+							writeBackResult(dstReg, registers[rs] ^ imm);
+						}
+					};
+				return new BlockOp() {
+					void execute() {
+						writeBackResult(dstReg, registers[rs] ^ registers[rt]);
+					}
+				};
+			case Mips.NOR:
+				return new BlockOp() {
+					void execute() {
+						writeBackResult(dstReg, ~(registers[rs] | registers[rt]));
+					}
+				};
+			case Mips.LUI:
+				return new BlockOp() {
+					void execute() {
+						writeBackResult(dstReg, imm << 16);
+					}
+				};
+			case Mips.SLT:
+				if (Lib.test(Mips.UNSIGNED, flags)) {
+					if (src2Imm)
+						return new BlockOp() {
+							void execute() {
+								long src1 = registers[rs] & 0xFFFFFFFFL;
+								writeBackResult(dstReg, src1 < imm ? 1 : 0);
+							}
+						};
+					return new BlockOp() {
+						void execute() {
+							long src1 = registers[rs] & 0xFFFFFFFFL;
+							long src2 = registers[rt] & 0xFFFFFFFFL;
+							writeBackResult(dstReg, src1 < src2 ? 1 : 0);
+						}
+					};
+				}
+				if (src2Imm)
+					return new BlockOp() {
+						void execute() {
+							writeBackResult(dstReg, registers[rs] < imm ? 1 : 0);
+						}
+					};
+				return new BlockOp() {
+					void execute() {
+						writeBackResult(dstReg,
+								registers[rs] < registers[rt] ? 1 : 0);
+					}
+				};
+			case Mips.SLL:
+				if (src1Sh)
+					return new BlockOp() {
+						void execute() {
+							writeBackResult(dstReg, registers[rt] << sh);
+						}
+					};
+				return new BlockOp() {
+					void execute() {
+						writeBackResult(dstReg,
+								registers[rt] << (registers[rs] & 0x1F));
+					}
+				};
+			case Mips.SRA:
+				if (src1Sh)
+					return new BlockOp() {
+						void execute() {
+							writeBackResult(dstReg, registers[rt] >> sh);
+						}
+					};
+				return new BlockOp() {
+					void execute() {
+						writeBackResult(dstReg,
+								registers[rt] >> (registers[rs] & 0x1F));
+					}
+				};
+			case Mips.SRL:
+				// shift the sign-extended value, exactly as the interpreter does
+				if (src1Sh)
+					return new BlockOp() {
+						void execute() {
+							long src2 = registers[rt];
+							writeBackResult(dstReg, (int) (src2 >>> sh));
+						}
+					};
+				return new BlockOp() {
+					void execute() {
+						long src2 = registers[rt];
+						writeBackResult(dstReg,
+								(int) (src2 >>> (registers[rs] & 0x1F)));
+					}
+				};
+			case Mips.LOAD:
+				final int size = decoded.size;
+				final boolean signed = !Lib.test(Mips.UNSIGNED, flags);
+				return new BlockOp() {
+					void execute() throws MipsException {
+						int value = readMem(registers[rs] + imm, size);
+						if (signed)
+							value = Lib.extend(value, 0, size * 8);
+
+						delayedLoad(rt, value, 0xFFFFFFFF);
+						advancePC(registers[regNextPC] + 4);
+					}
+				};
+			case Mips.STORE:
+				final int storeSize = decoded.size;
+				return new BlockOp() {
+					void execute() throws MipsException {
+						writeMem(registers[rs] + imm, storeSize, registers[rt]);
+
+						finishLoad();
+						advancePC(registers[regNextPC] + 4);
+					}
+				};
+			case Mips.BEQ:
+			case Mips.BNE:
+			case Mips.BLEZ:
+			case Mips.BGTZ:
+			case Mips.BLTZ:
+			case Mips.BGEZ:
+				final int operation = decoded.operation;
+				final int offset = decoded.signedImm << 2;
+				return new BlockOp() {
+					void execute() {
+						int src1 = registers[rs], src2 = registers[rt];
+						boolean taken;
+
+						switch (operation) {
+						case Mips.BEQ:
+							taken = (src1 == src2);
+							break;
+						case Mips.BNE:
+							taken = (src1 != src2);
+							break;
+						case Mips.BLEZ:
+							taken = (src1 <= 0);
+							break;
+						case Mips.BGTZ:
+							taken = (src1 > 0);
+							break;
+						case Mips.BLTZ:
+							taken = (src1 < 0);
+							break;
+						default:
+							taken = (src1 >= 0);
+							break;
+						}
+
+						int nextPC = registers[regNextPC];
+						finishLoad();
+						advancePC(taken ? nextPC + offset : nextPC + 4);
+					}
+				};
+			case Mips.JUMP:
+				final boolean link = Lib.test(Mips.LINK, flags);
+				if (decoded.format == Mips.JFMT) {
+					final int target = decoded.target << 2;
+					return new BlockOp() {
+						void execute() {
+							int nextPC = registers[regNextPC];
+							finishLoad();
+							if (link)
+								registers[dstReg] = nextPC + 4;
+							advancePC((nextPC & 0xF0000000) | target);
+						}
+					};
+				}
+				return new BlockOp() {
+					void execute() {
+						int target = registers[rs];
+						int nextPC = registers[regNextPC];
+						finishLoad();
+						if (link && dstReg != 0)
+							registers[dstReg] = nextPC + 4;
+						advancePC(target);
+					}
+				};
+			}
+		}
+
+		return new BlockOp() {
+			void execute() throws MipsException {
+				blockInterpreter.run(decoded);
+			}
+		};
 	}
 
 	/**
@@ -552,15 +1235,40 @@ public final class Processor {
 	/** Number of TLB entries. */
 	private int tlbSize = 4;
 
+	/** Number of entries in each TLB set. */
+	private int tlbAssociativity;
+
+	/** Number of TLB sets. */
+	private int tlbSets;
+
 	/**
 	 * Either an associative or direct-mapped set of translation entries,
 	 * depending on whether there is a TLB.
 	 */
 	private TranslationEntry[] translations;
 
+	/**
+	 * A direct-mapped cache, indexed by the low bits of the virtual page
+	 * number, of the entries most recently used by <tt>translate()</tt>. It
+	 * sits in front of both the page table and the TLB.
+	 */
+	private TranslationEntry[] microTLBEntries = new TranslationEntry[microTLBSize];
+
+	/** The virtual page number cached in each micro-TLB slot. */
+	private int[] microTLBPages = new int[microTLBSize];
+
+	/** The TLB set of the entry cached in each micro-TLB slot. */
+	private int[] microTLBSets = new int[microTLBSize];
+
+	/** Number of micro-TLB slots. Must be a power of two. */
+	private static final int microTLBSize = 64;
+
 	/** Size of a page, in bytes. */
 	public static final int pageSize = 0x400;
 
+	/** Base-2 logarithm of the page size. */
+	private static final int pageShift = Integer.numberOfTrailingZeros(pageSize);
+
 	/** Number of pages in a 32-bit address space. */
 	public static final int maxPages = (int) (0x100000000L / pageSize);
 
@@ -570,6 +1278,37 @@ public final class Processor {
 	/** Main memory for user programs. */
 	private byte[] mainMemory;
 
+	/**
+	 * Cache of decoded instructions, indexed by physical page number and then
+	 * by word within the page. A page's array is allocated the first time an
+	 * instruction is fetched from it.
+	 */
+	private DecodedInstruction[][] decodedPages;
+
+	/** <tt>true</tt> if executing user code one basic block at a time. */
+	private boolean usingBlockEngine;
+
+	/**
+	 * <tt>true</tt> if the interpreter settles user ticks once per batch of
+	 * instructions instead of once per instruction.
+	 */
+	private boolean usingBatchedTicks;
+
+	/**
+	 * Translated blocks, indexed by physical page number, or <tt>null</tt> if
+	 * the block engine is not in use.
+	 */
+	private TranslatedPage[] translatedPages = null;
+
+	/** Runs the block operations that are not specialized. */
+	private Instruction blockInterpreter = null;
+
+	/** Set when the running block stores over a translated instruction. */
+	private boolean blockInvalidated;
+
+	/** The maximum number of instructions in a translated block. */
+	private static final int maxBlockLength = 64;
+
 	/** The kernel exception handler, called on every user exception. */
 	private Runnable exceptionHandler = null;
 
@@ -633,6 +1372,17 @@ public final class Processor {
 			writeBack();
 		}
 
+		/**
+		 * Execute an instruction that has already been fetched and decoded.
+		 * 
+		 * @param decoded the decoded instruction to execute.
+		 */
+		public void run(DecodedInstruction decoded) throws MipsException {
+			decode(decoded);
+			execute();
+			writeBack();
+		}
+
 		private boolean test(int flag) {
 			return Lib.test(flag, flags);
 		}
@@ -643,78 +1393,58 @@ public final class Processor {
 				System.out.print("PC=0x" + Lib.toHexString(registers[regPC])
 						+ "\t");
 
-			value = readMem(registers[regPC], 4);
+			int vaddr = registers[regPC];
+
+			if (Lib.test(dbgProcessor))
+				System.out.println("\treadMem vaddr=0x" + Lib.toHexString(vaddr)
+						+ ", size=4");
+
+			paddr = translate(vaddr, 4, false);
+			value = Lib.bytesToInt(mainMemory, paddr, 4);
+
+			if (Lib.test(dbgProcessor))
+				System.out.println("\t\tvalue read=0x"
+						+ Lib.toHexString(value, 8));
 		}
 
 		private void decode() {
-			op = Lib.extract(value, 26, 6);
-			rs = Lib.extract(value, 21, 5);
-			rt = Lib.extract(value, 16, 5);
-			rd = Lib.extract(value, 11, 5);
-			sh = Lib.extract(value, 6, 5);
-			func = Lib.extract(value, 0, 6);
-			target = Lib.extract(value, 0, 26);
-			imm = Lib.extend(value, 0, 16);
+			decode(decodeInstruction(paddr, value));
+		}
 
-			Mips info;
-			switch (op) {
-			case 0:
-				info = Mips.specialtable[func];
-				break;
-			case 1:
-				info = Mips.regimmtable[rt];
-				break;
-			default:
-				info = Mips.optable[op];
-				break;
-			}
+		private void decode(DecodedInstruction decoded) {
+			op = decoded.op;
+			rs = decoded.rs;
+			rt = decoded.rt;
+			rd = decoded.rd;
+			sh = decoded.sh;
+			func = decoded.func;
+			target = decoded.target;
+			imm = decoded.imm;
 
-			operation = info.operation;
-			name = info.name;
-			format = info.format;
-			flags = info.flags;
+			operation = decoded.operation;
+			name = decoded.name;
+			format = decoded.format;
+			flags = decoded.flags;
+
+			size = decoded.size;
+			dstReg = decoded.dstReg;
 
 			mask = 0xFFFFFFFF;
 			branch = true;
 
-			// get memory access size
-			if (test(Mips.SIZEB))
-				size = 1;
-			else if (test(Mips.SIZEH))
-				size = 2;
-			else if (test(Mips.SIZEW))
-				size = 4;
-			else
-				size = 0;
-
 			// get nextPC
 			nextPC = registers[regNextPC] + 4;
 
-			// get dstReg
-			if (test(Mips.DSTRA))
-				dstReg = regRA;
-			else if (format == Mips.IFMT)
-				dstReg = rt;
-			else if (format == Mips.RFMT)
-				dstReg = rd;
-			else
-				dstReg = -1;
-
 			// get jtarget
 			if (format == Mips.RFMT)
 				jtarget = registers[rs];
 			else if (format == Mips.IFMT)
-				jtarget = registers[regNextPC] + (imm << 2);
+				jtarget = registers[regNextPC] + (decoded.signedImm << 2);
 			else if (format == Mips.JFMT)
 				jtarget = (registers[regNextPC] & 0xF0000000) | (target << 2);
 			else
 				jtarget = -1;
 
-			// get imm
-			if (test(Mips.UNSIGNED)) {
-				imm &= 0xFFFF;
-			}
-
 			// get addr
 			addr = registers[rs] + imm;
 
@@ -1070,7 +1800,7 @@ public final class Processor {
 		}
 
 		// state used to execute a single instruction
-		int value, op, rs, rt, rd, sh, func, target, imm;
+		int paddr, value, op, rs, rt, rd, sh, func, target, imm;
 
 		int operation, format, flags;
 
@@ -1087,6 +1817,126 @@ public final class Processor {
 		boolean branch;
 	}
 
+	/**
+	 * The parts of an instruction that depend only on the instruction word,
+	 * not on the register file. Instances are immutable, so they can be cached
+	 * and reused each time the same word is fetched.
+	 */
+	private static class DecodedInstruction {
+		DecodedInstruction(int value) {
+			this.value = value;
+
+			op = Lib.extract(value, 26, 6);
+			rs = Lib.extract(value, 21, 5);
+			rt = Lib.extract(value, 16, 5);
+			rd = Lib.extract(value, 11, 5);
+			sh = Lib.extract(value, 6, 5);
+			func = Lib.extract(value, 0, 6);
+			target = Lib.extract(value, 0, 26);
+			signedImm = Lib.extend(value, 0, 16);
+
+			Mips info;
+			switch (op) {
+			case 0:
+				info = Mips.specialtable[func];
+				break;
+			case 1:
+				info = Mips.regimmtable[rt];
+				break;
+			default:
+				info = Mips.optable[op];
+				break;
+			}
+
+			operation = info.operation;
+			name = info.name;
+			format = info.format;
+			flags = info.flags;
+
+			// get memory access size
+			if (Lib.test(Mips.SIZEB, flags))
+				size = 1;
+			else if (Lib.test(Mips.SIZEH, flags))
+				size = 2;
+			else if (Lib.test(Mips.SIZEW, flags))
+				size = 4;
+			else
+				size = 0;
+
+			// get dstReg
+			if (Lib.test(Mips.DSTRA, flags))
+				dstReg = regRA;
+			else if (format == Mips.IFMT)
+				dstReg = rt;
+			else if (format == Mips.RFMT)
+				dstReg = rd;
+			else
+				dstReg = -1;
+
+			// get imm
+			if (Lib.test(Mips.UNSIGNED, flags))
+				imm = signedImm & 0xFFFF;
+			else
+				imm = signedImm;
+		}
+
+		final int value, op, rs, rt, rd, sh, func, target, imm, signedImm;
+
+		final int operation, format, flags;
+
+		final String name;
+
+		final int size, dstReg;
+	}
+
+	/**
+	 * One instruction of a translated block, specialized for its operation.
+	 */
+	private abstract class BlockOp {
+		abstract void execute() throws MipsException;
+	}
+
+	/**
+	 * A straight-line sequence of instructions within one physical page,
+	 * together with the instruction words it was translated from.
+	 */
+	private class Block {
+		Block(int[] words, BlockOp[] ops) {
+			this.words = words;
+			this.ops = ops;
+		}
+
+		/**
+		 * Test whether main memory still holds the instructions this block was
+		 * translated from.
+		 * 
+		 * @param paddr the physical address of the first instruction.
+		 * @return <tt>true</tt> if the block is still valid.
+		 */
+		boolean matches(int paddr) {
+			for (int i = 0; i < words.length; i++) {
+				if (Lib.bytesToInt(mainMemory, paddr + i * 4) != words[i])
+					return false;
+			}
+
+			return true;
+		}
+
+		final int[] words;
+
+		final BlockOp[] ops;
+	}
+
+	/**
+	 * The blocks translated from one physical page, indexed by the word they
+	 * start at, and the words that belong to any of them.
+	 */
+	private static class TranslatedPage {
+		Block[] blocks = new Block[pageSize / 4];
+
+		boolean[] translated = new boolean[pageSize / 4];
+	}
+
 	private static class Mips {
 		Mips() {
 		}
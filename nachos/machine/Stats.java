@@ -26,11 +26,27 @@ public final class Stats {
 				+ ", writes " + numConsoleWrites);
 		System.out.println("Paging: page faults " + numPageFaults
 				+ ", TLB misses " + numTLBMisses);
+		if (tlbSetHits != null) {
+			long maxMisses = 0;
+			int worstSet = 0;
+			for (int i = 0; i < tlbSetMisses.length; i++) {
+				if (tlbSetMisses[i] > maxMisses) {
+					maxMisses = tlbSetMisses[i];
+					worstSet = i;
+				}
+			}
+			System.out.println("TLB sets: " + tlbSetHits.length
+					+ ", most misses in set " + worstSet + " (hits "
+					+ tlbSetHits[worstSet] + ", misses " + maxMisses + ")");
+		}
 		System.out.println("Swap: COFF reads " + numCOFFReads
 				+ ", swap reads " + numSwapReads
 			        + ", swap writes " + numSwapWrites);
 		System.out.println("Network I/O: received " + numPacketsReceived
 				+ ", sent " + numPacketsSent);
+		if (numRealTimeJobs > 0)
+			System.out.println("Real-time: jobs " + numRealTimeJobs
+					+ ", deadline misses " + numDeadlineMisses);
 	}
 
 	/**
@@ -66,6 +82,18 @@ public final class Stats {
 	/** The total number of TLB misses that have occurred. */
 	public int numTLBMisses = 0;
 
+	/**
+	 * The number of TLB hits in each TLB set, or <tt>null</tt> if there is no
+	 * TLB.
+	 */
+	public long[] tlbSetHits = null;
+
+	/**
+	 * The number of TLB misses in each TLB set, or <tt>null</tt> if there is
+	 * no TLB.
+	 */
+	public long[] tlbSetMisses = null;
+
         /** The total number of pages read from COFF files. */
         public int numCOFFReads = 0;
 
@@ -81,6 +109,12 @@ public final class Stats {
 	/** The total number of packets Nachos has received from the network. */
 	public int numPacketsReceived = 0;
 
+	/** The total number of real-time jobs that have finished. */
+	public int numRealTimeJobs = 0;
+
+	/** The number of real-time jobs that finished after their deadline. */
+	public int numDeadlineMisses = 0;
+
 	/**
 	 * The amount to advance simulated time after each user instructions is
 	 * executed.
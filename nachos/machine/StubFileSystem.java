@@ -8,6 +8,8 @@ import nachos.threads.*;
 import java.io.File;
 import java.io.RandomAccessFile;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * This class implements a file system that redirects all requests to the host
@@ -143,6 +145,87 @@ public class StubFileSystem implements FileSystem {
 			}
 		}
 
+		/**
+		 * Read straight into the regions of <i>buf</i> with a single
+		 * scattering read on the file's channel.
+		 */
+		public int readScatter(int pos, byte[] buf, int[] offsets,
+				int[] lengths, int count) {
+			if (!open)
+				return -1;
+
+			try {
+				delay();
+
+				FileChannel channel = file.getChannel();
+				channel.position(pos);
+
+				ByteBuffer[] buffers = wrap(buf, offsets, lengths, count);
+				long total = 0;
+				while (buffers[count - 1].hasRemaining()) {
+					long amount = channel.read(buffers);
+					if (amount <= 0)
+						break;
+					total += amount;
+				}
+
+				return (int) total;
+			}
+			catch (IOException e) {
+				return -1;
+			}
+		}
+
+		/**
+		 * Write straight from the regions of <i>buf</i> with a single
+		 * gathering write on the file's channel.
+		 */
+		public int writeGather(int pos, byte[] buf, int[] offsets,
+				int[] lengths, int count) {
+			if (!open)
+				return -1;
+
+			try {
+				delay();
+
+				FileChannel channel = file.getChannel();
+				channel.position(pos);
+
+				ByteBuffer[] buffers = wrap(buf, offsets, lengths, count);
+				long total = 0;
+				while (buffers[count - 1].hasRemaining()) {
+					long amount = channel.write(buffers);
+					if (amount <= 0)
+						break;
+					total += amount;
+				}
+
+				return (int) total;
+			}
+			catch (IOException e) {
+				return -1;
+			}
+		}
+
+		/**
+		 * Return buffers that share <i>buf</i>'s storage, one per region, so
+		 * the channel copies to or from <i>buf</i> directly.
+		 */
+		private ByteBuffer[] wrap(byte[] buf, int[] offsets, int[] lengths,
+				int count) {
+			Lib.assertTrue(count > 0);
+
+			if (buffers.length < count)
+				buffers = new ByteBuffer[count];
+
+			for (int i = 0; i < count; i++)
+				buffers[i] = ByteBuffer.wrap(buf, offsets[i], lengths[i]);
+			for (int i = count; i < buffers.length; i++)
+				buffers[i] = empty;
+
+			return buffers;
+		}
+
 		public int length() {
 			try {
 				return (int) file.length();
@@ -168,8 +251,13 @@ public class StubFileSystem implements FileSystem {
 		private RandomAccessFile file = null;
 
 		private boolean open = false;
+
+		/** The buffers of the last scattering read or gathering write. */
+		private ByteBuffer[] buffers = new ByteBuffer[0];
 	}
 
+	private static final ByteBuffer empty = ByteBuffer.allocate(0);
+
 	public int openCount = 0;
 
 	private static final int maxOpenFiles = 32;
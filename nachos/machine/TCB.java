@@ -6,6 +6,8 @@ import nachos.security.*;
 import nachos.threads.KThread;
 
 import java.util.Vector;
+import java.util.concurrent.locks.LockSupport;
+import java.lang.reflect.Method;
 import java.security.PrivilegedAction;
 
 /**
@@ -14,6 +16,16 @@ import java.security.PrivilegedAction;
  * object.
  * 
  * <p>
+ * The <tt>TCB.backend</tt> configuration key selects how TCBs hand the CPU to
+ * each other. <tt>monitor</tt> (the default) uses a <i>synchronized</i>
+ * wait/notify handoff on platform threads. <tt>park</tt> uses
+ * <tt>LockSupport.park()</tt>/<tt>unpark()</tt> on platform threads, and
+ * <tt>virtual</tt> uses the same handoff on virtual threads, which requires a
+ * JVM that supports them. The <tt>park</tt> and <tt>virtual</tt> backends are
+ * not limited to <tt>maxThreads</tt> TCBs; <tt>TCB.maxThreads</tt> sets their
+ * limit instead.
+ * 
+ * <p>
  * Do not use any methods in <tt>java.lang.Thread</tt>, as they are not
  * compatible with the TCB API. Most <tt>Thread</tt> methods will either crash
  * Nachos or have no useful effect.
@@ -39,6 +51,31 @@ public final class TCB {
 	public static void givePrivilege(Privilege privilege) {
 		TCB.privilege = privilege;
 		privilege.tcb = new TCBPrivilege();
+
+		String backend = Config.getString("TCB.backend", "monitor");
+		Lib.assertTrue(backend.equals("monitor") || backend.equals("park")
+				|| backend.equals("virtual"),
+				"TCB.backend must be monitor, park or virtual");
+
+		usingPark = !backend.equals("monitor");
+		threadLimit = Config.getInteger("TCB.maxThreads",
+				usingPark ? maxParkedThreads : maxThreads);
+
+		if (backend.equals("virtual")) {
+			ofVirtual = Lib.tryLoadClass("java.lang.Thread$Builder$OfVirtual");
+			Lib.assertTrue(ofVirtual != null,
+					"TCB.backend = virtual requires a JVM with virtual threads");
+		}
+	}
+
+	/**
+	 * Return the maximum number of started, non-destroyed TCBs that can be in
+	 * existence with the configured backend.
+	 * 
+	 * @return the TCB limit.
+	 */
+	public static int getMaxThreads() {
+		return threadLimit;
 	}
 
 	/**
@@ -68,7 +105,7 @@ public final class TCB {
 		 * Make sure there aren't too many running TCBs already. This limitation
 		 * exists in an effort to prevent wild thread usage.
 		 */
-		Lib.assertTrue(runningThreads.size() < maxThreads);
+		Lib.assertTrue(runningThreads.size() < threadLimit);
 
 		isFirstTCB = (currentTCB == null);
 
@@ -102,7 +139,10 @@ public final class TCB {
 
 			privilege.doPrivileged(new Runnable() {
 				public void run() {
-					javaThread = new Thread(tcbTarget);
+					if (ofVirtual != null)
+						javaThread = newVirtualThread(tcbTarget);
+					else
+						javaThread = new Thread(tcbTarget);
 				}
 			});
 
@@ -298,7 +338,18 @@ public final class TCB {
 	 * from this TCB to another. We don't rely on <tt>currentTCB</tt>, since it
 	 * is updated by <tt>contextSwitch()</tt> before we get called.
 	 */
-	private synchronized void waitForInterrupt() {
+	private void waitForInterrupt() {
+		if (usingPark) {
+			while (!running)
+				LockSupport.park(this);
+
+			return;
+		}
+
+		waitOnMonitor();
+	}
+
+	private synchronized void waitOnMonitor() {
 		while (!running) {
 			try {
 				wait();
@@ -314,11 +365,38 @@ public final class TCB {
 	 * starting and destroying TCBs, as well as in context switching to this
 	 * TCB.
 	 */
-	private synchronized void interrupt() {
+	private void interrupt() {
+		if (usingPark) {
+			// the write to running publishes everything done before it
+			running = true;
+			LockSupport.unpark(javaThread);
+			return;
+		}
+
+		notifyMonitor();
+	}
+
+	private synchronized void notifyMonitor() {
 		running = true;
 		notify();
 	}
 
+	/**
+	 * Create an unstarted virtual thread. The builder API is looked up
+	 * reflectively so that Nachos still compiles and runs on JVMs without
+	 * virtual threads.
+	 */
+	private static Thread newVirtualThread(Runnable target) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method unstarted = ofVirtual.getMethod("unstarted", Runnable.class);
+			return (Thread) unstarted.invoke(builder, target);
+		}
+		catch (Exception e) {
+			throw new RuntimeException("could not create virtual thread", e);
+		}
+	}
+
 	private void associateThread(KThread thread) {
 		// make sure AutoGrader.runningThread() gets called only once per
 		// context switch
@@ -346,6 +424,20 @@ public final class TCB {
 	 */
 	public static final int maxThreads = 250;
 
+	/**
+	 * The default limit on started, non-destroyed TCBs for the <tt>park</tt>
+	 * and <tt>virtual</tt> backends.
+	 */
+	public static final int maxParkedThreads = 100000;
+
+	private static int threadLimit = maxThreads;
+
+	/** <tt>true</tt> if TCBs hand off with park/unpark instead of a monitor. */
+	private static boolean usingPark = false;
+
+	/** The virtual thread builder class, or <tt>null</tt> if not in use. */
+	private static Class<?> ofVirtual = null;
+
 	/**
 	 * A reference to the currently running TCB. It is initialized to
 	 * <tt>null</tt> when the <tt>TCB</tt> class is loaded, and then the first
@@ -403,7 +495,7 @@ public final class TCB {
 	 * TCB, this is temporarily true for a thread other than that of the current
 	 * TCB.
 	 */
-	private boolean running = false;
+	private volatile boolean running = false;
 
 	/**
 	 * Set to <tt>true</tt> by <tt>destroy()</tt>, so that when
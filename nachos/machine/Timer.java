@@ -51,6 +51,35 @@ public final class Timer {
 		this.handler = handler;
 	}
 
+	/**
+	 * Suppress timer interrupts until the specified time. The next interrupt
+	 * handler call happens at the first timer interrupt at or after
+	 * <i>time</i>, and the periodic interrupts in between are skipped, so an
+	 * idle kernel does not have to step through them. Suppression ends at that
+	 * interrupt, or earlier with <tt>resume()</tt>. If <i>time</i> is
+	 * <tt>Long.MAX_VALUE</tt>, the timer stops until <tt>resume()</tt>.
+	 * 
+	 * @param time the earliest time the interrupt handler is needed.
+	 */
+	public void suppressUntil(long time) {
+		suppressed = true;
+		suppressedUntil = time;
+	}
+
+	/**
+	 * End any suppression set by <tt>suppressUntil()</tt>, scheduling the next
+	 * timer interrupt as if one had just occurred.
+	 */
+	public void resume() {
+		if (!suppressed)
+			return;
+
+		suppressed = false;
+
+		// the interrupt already scheduled is superseded by this one
+		scheduleInterrupt();
+	}
+
 	/**
 	 * Get the current time.
 	 * 
@@ -61,6 +90,24 @@ public final class Timer {
 	}
 
 	private void timerInterrupt() {
+		// ignore an interrupt superseded by resume(), which is always early
+		if (getTime() < nextInterruptTime)
+			return;
+
+		if (suppressed) {
+			if (getTime() < suppressedUntil) {
+				nextInterruptTime = suppressedUntil;
+
+				// stopped: resume() schedules the next interrupt
+				if (suppressedUntil != Long.MAX_VALUE)
+					privilege.interrupt.schedule(suppressedUntil - getTime(),
+							"timer", timerInterrupt);
+				return;
+			}
+
+			suppressed = false;
+		}
+
 		scheduleInterrupt();
 		scheduleAutoGraderInterrupt();
 
@@ -74,6 +121,7 @@ public final class Timer {
 		int delay = Stats.TimerTicks;
 		delay += Lib.random(delay / 10) - (delay / 20);
 
+		nextInterruptTime = getTime() + delay;
 		privilege.interrupt.schedule(delay, "timer", timerInterrupt);
 	}
 
@@ -83,6 +131,13 @@ public final class Timer {
 
 	private long lastTimerInterrupt;
 
+	/** The time of the timer interrupt that is not superseded. */
+	private long nextInterruptTime;
+
+	private boolean suppressed = false;
+
+	private long suppressedUntil;
+
 	private Runnable timerInterrupt;
 
 	private Runnable autoGraderInterrupt;
@@ -24,7 +24,7 @@ public class PostOffice {
 	public PostOffice() {
 		messageReceived = new Semaphore(0);
 		messageSent = new Semaphore(0);
-		sendLock = new Lock();
+		sendLock = new Lock("PostOffice.sendLock");
 
 		queues = new SynchList[MailMessage.portLimit];
 		for (int i = 0; i < queues.length; i++)
@@ -63,6 +63,8 @@ public class PostOffice {
 
 		Lib.debug(dbgNet, "waiting for mail on port " + port);
 
+		ThreadedKernel.scheduler.waitingForIO();
+
 		MailMessage mail = (MailMessage) queues[port].removeFirst();
 
 		if (Lib.test(dbgNet))
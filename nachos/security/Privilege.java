@@ -157,6 +157,28 @@ public abstract class Privilege {
 		 * user code.
 		 */
 		public void tick(boolean inKernelMode);
+
+		/**
+		 * Advance the simulated time by the specified number of ticks. This has
+		 * exactly the same effect as calling <tt>tick(inKernelMode)</tt>
+		 * <i>ticks</i> times, provided no interrupt falls due before the last
+		 * of those ticks (see <tt>ticksUntilNextInterrupt()</tt>).
+		 * 
+		 * @param inKernelMode <tt>true</tt> if the ticks were spent running
+		 * kernel code, <tt>false</tt> if they were spent running MIPS user
+		 * code.
+		 * @param ticks the number of ticks to advance.
+		 */
+		public void tick(boolean inKernelMode, int ticks);
+
+		/**
+		 * Return the number of ticks that can elapse before the next pending
+		 * interrupt falls due, or <tt>Long.MAX_VALUE</tt> if no interrupt is
+		 * pending.
+		 * 
+		 * @return the number of ticks until the next pending interrupt.
+		 */
+		public long ticksUntilNextInterrupt();
 	}
 
 	/**
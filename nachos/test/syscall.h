@@ -25,6 +25,8 @@
 #define syscallMmap		10
 #define syscallConnect		11
 #define syscallAccept		12
+#define syscallReadv		13
+#define syscallWritev		14
 
 /* Don't want the assembler to see C code, but start.s includes syscall.h. */
 #ifndef START_S
@@ -181,6 +183,33 @@ int read(int fileDescriptor, void *buffer, int count);
  */
 int write(int fileDescriptor, void *buffer, int count);
 
+/* One buffer of a vectored read or write. */
+struct iovec {
+    void *iov_base;	/* the first byte of the buffer */
+    int iov_len;	/* the number of bytes in the buffer */
+};
+
+/* The largest iovcnt that readv() and writev() accept. */
+#define IOV_MAX			16
+
+/**
+ * Like read(), but fill the iovcnt buffers described by iov in order, with a
+ * single system call. Stops early under the same conditions as read().
+ *
+ * Returns the total number of bytes read, or -1 if an error occurred,
+ * including a negative iov_len or an iovcnt outside 0..IOV_MAX.
+ */
+int readv(int fileDescriptor, struct iovec *iov, int iovcnt);
+
+/**
+ * Like write(), but write the iovcnt buffers described by iov in order, with
+ * a single system call. It IS an error if fewer bytes are written than the
+ * buffers hold in total.
+ *
+ * Returns the total number of bytes written, or -1 if an error occurred.
+ */
+int writev(int fileDescriptor, struct iovec *iov, int iovcnt);
+
 /**
  * Close a file descriptor, so that it no longer refers to any file or
  * stream and may be reused. The resources associated with the file
@@ -2,18 +2,25 @@ package nachos.threads;
 
 import nachos.machine.*;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
-
 /**
  * Uses the hardware timer to provide preemption, and to allow threads to sleep
  * until a certain time.
+ * 
+ * <p>
+ * Sleeping threads are kept on a two-level timer. Threads due within one turn
+ * of a timing wheel (a ring of <tt>wheelSlots</tt> buckets, each covering
+ * <tt>slotTicks</tt> ticks of wake-up time) sit in the bucket for their
+ * wake-up time; threads due later wait in an overflow heap ordered by wake-up
+ * time, and are moved onto the wheel as it turns towards them. A timer
+ * interrupt only visits the buckets for the time that has passed since the
+ * previous one, and every entry in those buckets is due, so it touches only
+ * the threads it wakes (and those in the bucket for the current time). Each
+ * bucket is an intrusive list of <tt>Wakeup</tt> entries, one per thread, so
+ * putting a thread on the wheel and taking it off take constant time, and
+ * the interrupt path does not allocate. The earliest wake-up time is cached
+ * for <tt>nextWakeTime()</tt>.
  */
 public class Alarm {
-
-	private Map<KThread, Long> waitingThreads;
-
 	/**
 	 * Allocate a new Alarm. Set the machine's timer interrupt handler to this
 	 * alarm's callback.
@@ -28,7 +35,10 @@ public class Alarm {
 			}
 		});
 
-		this.waitingThreads = new HashMap<KThread, Long>();
+		for (int i = 0; i < wheelSlots; i++)
+			wheel[i] = new Wakeup(null);
+
+		nextSlot = Machine.timer().getTime() / slotTicks;
 	}
 
 	/**
@@ -40,25 +50,80 @@ public class Alarm {
 	public void timerInterrupt() {
 
 		Machine.interrupt().disable();
-		LinkedList<KThread> finishedThreads = new LinkedList<>();
 
-		for (KThread thread : this.waitingThreads.keySet()) {
+		long time = Machine.timer().getTime();
+		long currentSlot = time / slotTicks;
+
+		/*
+		 * Visit every slot up to and including the current one. Threads in the
+		 * current slot that are not yet due are left for the next interrupt,
+		 * which starts again from the current slot.
+		 */
+		// threads in the overflow heap that came due while the timer was quiet
+		while (overflowSize > 0 && overflow[0].wakeTime < time)
+			expire(overflow[0]);
+
+		long lastSlot = Math.min(currentSlot, nextSlot + wheelSlots - 1);
+		for (long slot = nextSlot; slot <= lastSlot; slot++) {
+			Wakeup head = wheel[(int) (slot % wheelSlots)];
 
-			long currentThreadWakeTime = this.waitingThreads.get(thread);
+			for (Wakeup wakeup = head.next; wakeup != head;) {
+				Wakeup next = wakeup.next;
 
-			if (currentThreadWakeTime < Machine.timer().getTime()) {
-				finishedThreads.add(thread);
-				thread.ready();
+				if (wakeup.wakeTime < time)
+					expire(wakeup);
+
+				wakeup = next;
 			}
 		}
+		nextSlot = currentSlot;
 
-		for (KThread thread : finishedThreads) {
-			this.waitingThreads.remove(thread);
+		// move the threads that are now within a turn onto the wheel
+		while (overflowSize > 0
+				&& overflow[0].wakeTime / slotTicks < nextSlot + wheelSlots) {
+			Wakeup wakeup = overflow[0];
+			removeOverflow(wakeup);
+			wakeup.linkBefore(wheel[(int) ((wakeup.wakeTime / slotTicks) % wheelSlots)]);
 		}
 
+		ThreadedKernel.scheduler.chargeQuantum(KThread.currentThread());
+
+		KThread.dumpThreadStatsIfDue();
+
 		Machine.interrupt().enable();
 
-		KThread.currentThread().yield();
+		KThread.preempt();
+	}
+
+	/**
+	 * Return the earliest time at which a sleeping thread is due to wake up.
+	 * Interrupts must be disabled.
+	 * 
+	 * @return the earliest wake-up time, or <tt>Long.MAX_VALUE</tt> if no
+	 * thread is sleeping.
+	 */
+	public long nextWakeTime() {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		if (earliestStale) {
+			earliestStale = false;
+			earliestWake = (overflowSize > 0) ? overflow[0].wakeTime
+					: Long.MAX_VALUE;
+
+			// every wheel entry is within one turn, so the first non-empty
+			// bucket holds the earliest of them
+			for (long slot = nextSlot; slot < nextSlot + wheelSlots; slot++) {
+				Wakeup head = wheel[(int) (slot % wheelSlots)];
+				if (head.next == head)
+					continue;
+
+				for (Wakeup wakeup = head.next; wakeup != head; wakeup = wakeup.next)
+					earliestWake = Math.min(earliestWake, wakeup.wakeTime);
+				break;
+			}
+		}
+
+		return earliestWake;
 	}
 
 	/**
@@ -83,21 +148,36 @@ public class Alarm {
         KThread currentThread = KThread.currentThread();
 
 		Machine.interrupt().disable();
+		ThreadedKernel.scheduler.waitingForIO();
 		updateThreadWaitTime(currentThread, wakeTime);
 		currentThread.sleep();
 		Machine.interrupt().enable();
 	}
 
 	private void updateThreadWaitTime(KThread threadToUpdate, long newWakeTime) {
+		Wakeup wakeup = threadToUpdate.alarmWakeup;
+		if (wakeup == null) {
+			wakeup = new Wakeup(threadToUpdate);
+			threadToUpdate.alarmWakeup = wakeup;
+		}
 
-		if (this.waitingThreads.containsKey(threadToUpdate)) {
-			if (newWakeTime > this.waitingThreads.get(threadToUpdate)) {
-				this.waitingThreads.replace(threadToUpdate, newWakeTime);
-			}
-			return;
+		if (wakeup.isQueued()) {
+			if (newWakeTime <= wakeup.wakeTime)
+				return;
+
+			remove(wakeup);
 		}
 
-		this.waitingThreads.put(threadToUpdate, newWakeTime);
+		wakeup.wakeTime = newWakeTime;
+
+		long slot = newWakeTime / slotTicks;
+		if (slot < nextSlot + wheelSlots)
+			wakeup.linkBefore(wheel[(int) (slot % wheelSlots)]);
+		else
+			addOverflow(wakeup);
+
+		if (!earliestStale)
+			earliestWake = Math.min(earliestWake, newWakeTime);
 	}
 
 	/**
@@ -112,17 +192,215 @@ public class Alarm {
 	public boolean cancel(KThread thread) {
 
         Machine.interrupt().disable();
-        boolean isThreadWaiting = this.waitingThreads.containsKey(thread);
+        Wakeup wakeup = thread.alarmWakeup;
+        boolean isThreadWaiting = (wakeup != null && wakeup.isQueued());
 
-        if (isThreadWaiting) {
-            thread.ready();
-            this.waitingThreads.remove(thread);
-        }
+        if (isThreadWaiting)
+            expire(wakeup);
 
         Machine.interrupt().enable();
         return isThreadWaiting;
     }
 
+	/**
+	 * Arm a timeout for the current thread without putting it to sleep. Once
+	 * <i>x</i> ticks have passed, the timer interrupt handler runs
+	 * <i>onTimeout</i> and then wakes the thread, exactly as for
+	 * <tt>waitUntil()</tt>. The caller is expected to put the thread to sleep
+	 * itself, and to disarm the timeout with <tt>cancelTimeout()</tt> if it
+	 * wakes the thread some other way. Interrupts must be disabled.
+	 * 
+	 * <p>
+	 * The thread's entry on the timing wheel serves as the handle for the
+	 * timeout, so arming and disarming it take constant time and do not
+	 * allocate.
+	 * 
+	 * @param x the minimum number of clock ticks to wait. Must be positive.
+	 * @param onTimeout run, with interrupts disabled, when the timeout
+	 * expires, or <tt>null</tt>.
+	 */
+	void setTimeout(long x, Runnable onTimeout) {
+		Lib.assertTrue(Machine.interrupt().disabled() && x > 0);
+
+		KThread thread = KThread.currentThread();
+		Lib.assertTrue(thread.alarmWakeup == null
+				|| !thread.alarmWakeup.isQueued());
+
+		updateThreadWaitTime(thread, Machine.timer().getTime() + x);
+		thread.alarmWakeup.onTimeout = onTimeout;
+	}
+
+	/**
+	 * Disarm the timeout set by <i>thread</i>, if any, without waking it or
+	 * running its <tt>onTimeout</tt>. Interrupts must be disabled.
+	 * 
+	 * @param thread the thread whose timeout should be disarmed.
+	 * @return <tt>true</tt> if a timeout was armed.
+	 */
+	boolean cancelTimeout(KThread thread) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		Wakeup wakeup = thread.alarmWakeup;
+		if (wakeup == null || !wakeup.isQueued())
+			return false;
+
+		remove(wakeup);
+		wakeup.onTimeout = null;
+		return true;
+	}
+
+	/**
+	 * Take an entry off the wheel, run its <tt>onTimeout</tt>, and wake its
+	 * thread.
+	 */
+	private void expire(Wakeup wakeup) {
+		remove(wakeup);
+
+		Runnable onTimeout = wakeup.onTimeout;
+		wakeup.onTimeout = null;
+		if (onTimeout != null)
+			onTimeout.run();
+
+		wakeup.thread.ready();
+	}
+
+	/**
+	 * Take an entry off the wheel or out of the overflow heap.
+	 */
+	private void remove(Wakeup wakeup) {
+		if (wakeup.heapIndex >= 0)
+			removeOverflow(wakeup);
+		else
+			wakeup.unlink();
+
+		if (wakeup.wakeTime <= earliestWake)
+			earliestStale = true;
+	}
+
+	private void addOverflow(Wakeup wakeup) {
+		if (overflowSize == overflow.length) {
+			Wakeup[] newOverflow = new Wakeup[overflow.length * 2];
+			System.arraycopy(overflow, 0, newOverflow, 0, overflowSize);
+			overflow = newOverflow;
+		}
+
+		siftUp(overflowSize++, wakeup);
+	}
+
+	private void removeOverflow(Wakeup wakeup) {
+		int index = wakeup.heapIndex;
+		wakeup.heapIndex = -1;
+
+		Wakeup last = overflow[--overflowSize];
+		overflow[overflowSize] = null;
+		if (last != wakeup) {
+			siftUp(index, last);
+			siftDown(last.heapIndex, last);
+		}
+	}
+
+	private void siftUp(int index, Wakeup wakeup) {
+		while (index > 0) {
+			int parent = (index - 1) / 2;
+			if (overflow[parent].wakeTime <= wakeup.wakeTime)
+				break;
+
+			place(index, overflow[parent]);
+			index = parent;
+		}
+
+		place(index, wakeup);
+	}
+
+	private void siftDown(int index, Wakeup wakeup) {
+		while (true) {
+			int child = 2 * index + 1;
+			if (child >= overflowSize)
+				break;
+
+			if (child + 1 < overflowSize
+					&& overflow[child + 1].wakeTime < overflow[child].wakeTime)
+				child++;
+
+			if (overflow[child].wakeTime >= wakeup.wakeTime)
+				break;
+
+			place(index, overflow[child]);
+			index = child;
+		}
+
+		place(index, wakeup);
+	}
+
+	private void place(int index, Wakeup wakeup) {
+		overflow[index] = wakeup;
+		wakeup.heapIndex = index;
+	}
+
+	/**
+	 * A thread's entry on the timing wheel. Each thread allocates one the first
+	 * time it sleeps and reuses it afterwards. The head of each bucket is an
+	 * entry with no thread, and the bucket is a circular doubly-linked list
+	 * through it.
+	 */
+	static class Wakeup {
+		Wakeup(KThread thread) {
+			this.thread = thread;
+			prev = next = this;
+		}
+
+		boolean isQueued() {
+			return next != this || heapIndex >= 0;
+		}
+
+		void linkBefore(Wakeup head) {
+			prev = head.prev;
+			next = head;
+			head.prev.next = this;
+			head.prev = this;
+		}
+
+		void unlink() {
+			prev.next = next;
+			next.prev = prev;
+			prev = next = this;
+		}
+
+		KThread thread;
+
+		long wakeTime;
+
+		/** Run when this entry expires, before the thread is woken. */
+		Runnable onTimeout = null;
+
+		Wakeup prev, next;
+
+		/** This entry's index in the overflow heap, or -1. */
+		int heapIndex = -1;
+	}
+
+	/** The number of buckets on the timing wheel. */
+	private static final int wheelSlots = 256;
+
+	/** The span of wake-up times covered by each bucket. */
+	private static final int slotTicks = 64;
+
+	private Wakeup[] wheel = new Wakeup[wheelSlots];
+
+	/** The first slot the next timer interrupt must visit. */
+	private long nextSlot;
+
+	/** The threads due a turn or more ahead, as a binary heap. */
+	private Wakeup[] overflow = new Wakeup[16];
+
+	private int overflowSize = 0;
+
+	/** The earliest wake-up time, unless <tt>earliestStale</tt>. */
+	private long earliestWake = Long.MAX_VALUE;
+
+	/** <tt>true</tt> if the earliest entry has left since it was found. */
+	private boolean earliestStale = false;
+
 	// Add Alarm testing code to the Alarm class
 
 	public static void alarmTest1() {
@@ -0,0 +1,221 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <i>bounded channel</i> is a FIFO buffer of 32-bit words shared by any
+ * number of producers and consumers. Unlike a <tt>Communicator</tt>, a
+ * producer does not wait for a consumer unless the buffer is full, and a
+ * consumer only waits if the buffer is empty.
+ *
+ * <p>
+ * <tt>speakAll()</tt> and <tt>listenUpTo()</tt> move as many words as they can
+ * each time they hold the lock, and wake at most one waiting thread on the
+ * other side each time, rather than one per word. A thread that leaves words
+ * (or space) behind passes the wake-up on to the next waiting thread on its own
+ * side, so every waiter is woken once there is something for it to do.
+ */
+public class BoundedChannel {
+	/**
+	 * Allocate a new bounded channel.
+	 *
+	 * @param capacity the number of words the channel can hold.
+	 */
+	public BoundedChannel(int capacity) {
+		Lib.assertTrue(capacity > 0);
+
+		buffer = new int[capacity];
+	}
+
+	/**
+	 * Add a word to the channel, waiting while the channel is full.
+	 *
+	 * @param word the word to add.
+	 */
+	public void speak(int word) {
+		lock.acquire();
+
+		waitForSpace();
+
+		buffer[(head + count) % buffer.length] = word;
+		count++;
+
+		afterSpeaking();
+
+		lock.release();
+	}
+
+	/**
+	 * Add every word in <i>words</i> to the channel, in order, waiting whenever
+	 * the channel is full. Words from other producers may be interleaved
+	 * between the batches this call is split into.
+	 *
+	 * @param words the words to add.
+	 */
+	public void speakAll(int[] words) {
+		speakAll(words, 0, words.length);
+	}
+
+	/**
+	 * Add <i>length</i> words from <i>words</i>, starting at <i>offset</i>, to
+	 * the channel.
+	 *
+	 * @param words the array holding the words to add.
+	 * @param offset the index of the first word to add.
+	 * @param length the number of words to add.
+	 */
+	public void speakAll(int[] words, int offset, int length) {
+		Lib.assertTrue(offset >= 0 && length >= 0
+				&& offset + length <= words.length);
+
+		lock.acquire();
+
+		while (length > 0) {
+			waitForSpace();
+
+			int amount = Math.min(length, buffer.length - count);
+			int tail = (head + count) % buffer.length;
+
+			// copy in at most two pieces, either side of the end of the ring
+			int first = Math.min(amount, buffer.length - tail);
+			System.arraycopy(words, offset, buffer, tail, first);
+			System.arraycopy(words, offset + first, buffer, 0, amount - first);
+
+			count += amount;
+			offset += amount;
+			length -= amount;
+
+			afterSpeaking();
+		}
+
+		lock.release();
+	}
+
+	/**
+	 * Remove a word from the channel, waiting while the channel is empty.
+	 *
+	 * @return the word removed.
+	 */
+	public int listen() {
+		lock.acquire();
+
+		waitForWords();
+
+		int word = buffer[head];
+		head = (head + 1) % buffer.length;
+		count--;
+
+		afterListening();
+
+		lock.release();
+
+		return word;
+	}
+
+	/**
+	 * Remove as many words as are available, up to the length of
+	 * <i>words</i>, waiting only if the channel is empty.
+	 *
+	 * @param words the array to receive the words.
+	 * @return the number of words removed, which is at least 1 unless
+	 * <i>words</i> is empty.
+	 */
+	public int listenUpTo(int[] words) {
+		return listenUpTo(words, 0, words.length);
+	}
+
+	/**
+	 * Remove as many words as are available, up to <i>length</i>, into
+	 * <i>words</i> starting at <i>offset</i>, waiting only if the channel is
+	 * empty.
+	 *
+	 * @param words the array to receive the words.
+	 * @param offset the index at which to store the first word.
+	 * @param length the maximum number of words to remove.
+	 * @return the number of words removed, which is at least 1 unless
+	 * <i>length</i> is 0.
+	 */
+	public int listenUpTo(int[] words, int offset, int length) {
+		Lib.assertTrue(offset >= 0 && length >= 0
+				&& offset + length <= words.length);
+
+		if (length == 0)
+			return 0;
+
+		lock.acquire();
+
+		waitForWords();
+
+		int amount = Math.min(length, count);
+
+		int first = Math.min(amount, buffer.length - head);
+		System.arraycopy(buffer, head, words, offset, first);
+		System.arraycopy(buffer, 0, words, offset + first, amount - first);
+
+		head = (head + amount) % buffer.length;
+		count -= amount;
+
+		afterListening();
+
+		lock.release();
+
+		return amount;
+	}
+
+	private void waitForSpace() {
+		while (count == buffer.length) {
+			waitingSpeakers++;
+			notFull.sleep();
+			waitingSpeakers--;
+		}
+	}
+
+	private void waitForWords() {
+		while (count == 0) {
+			waitingListeners++;
+			notEmpty.sleep();
+			waitingListeners--;
+		}
+	}
+
+	/**
+	 * Wake a listener for the words just added, and pass any space left on to
+	 * the next speaker.
+	 */
+	private void afterSpeaking() {
+		if (waitingListeners > 0)
+			notEmpty.wake();
+
+		if (count < buffer.length && waitingSpeakers > 0)
+			notFull.wake();
+	}
+
+	/**
+	 * Wake a speaker for the space just freed, and pass any words left on to
+	 * the next listener.
+	 */
+	private void afterListening() {
+		if (waitingSpeakers > 0)
+			notFull.wake();
+
+		if (count > 0 && waitingListeners > 0)
+			notEmpty.wake();
+	}
+
+	private Lock lock = new Lock();
+
+	private Condition2 notFull = new Condition2(lock);
+
+	private Condition2 notEmpty = new Condition2(lock);
+
+	/** The words in the channel, as a ring starting at <tt>head</tt>. */
+	private int[] buffer;
+
+	private int head = 0;
+
+	private int count = 0;
+
+	private int waitingSpeakers = 0;
+
+	private int waitingListeners = 0;
+}
@@ -27,6 +27,21 @@ public class Communicator {
 	 * @param word the integer to transfer.
 	 */
 	public void speak(int word) {
+		lock.acquire();
+
+		// only one word is handed over at a time
+		while (wordReady)
+			speakers.sleep();
+
+		this.word = word;
+		wordReady = true;
+		long ticket = ++wordsSpoken;
+		listeners.wake();
+
+		while (wordsHeard < ticket)
+			handedOver.sleep();
+
+		lock.release();
 	}
 
 	/**
@@ -36,6 +51,40 @@ public class Communicator {
 	 * @return the integer transferred.
 	 */
 	public int listen() {
-		return 0;
+		lock.acquire();
+
+		while (!wordReady)
+			listeners.sleep();
+
+		int word = this.word;
+		wordReady = false;
+		wordsHeard++;
+
+		handedOver.wake();
+		speakers.wake();
+
+		lock.release();
+
+		return word;
 	}
+
+	private Lock lock = new Lock();
+
+	/** Speakers waiting for the word being handed over to be taken. */
+	private Condition2 speakers = new Condition2(lock);
+
+	/** Listeners waiting for a word. */
+	private Condition2 listeners = new Condition2(lock);
+
+	/** The speaker whose word is being handed over. */
+	private Condition2 handedOver = new Condition2(lock);
+
+	/** <tt>true</tt> if <tt>word</tt> holds a word no listener has taken. */
+	private boolean wordReady = false;
+
+	private int word;
+
+	private long wordsSpoken = 0;
+
+	private long wordsHeard = 0;
 }
@@ -9,7 +9,11 @@ import java.util.LinkedList;
  * synchronization.
  * 
  * <p>
- * You must implement this.
+ * Waiting threads are kept on an intrusive list through a <tt>Waiter</tt>
+ * entry that each thread allocates once, so <tt>sleep()</tt> and
+ * <tt>wake()</tt> do not allocate. A timed wait arms the thread's alarm entry
+ * as well; <tt>wake()</tt> disarms it, and a timeout takes the thread off this
+ * list, both in constant time.
  * 
  * @see nachos.threads.Condition
  */
@@ -24,7 +28,9 @@ public class Condition2 {
 	public Condition2(Lock conditionLock) {
 		this.conditionLock = conditionLock;
 
-		this.waitQueue = new LinkedList<KThread>();
+		this.waiters = new Waiter(null);
+
+		this.profile = ContentionProfile.create("Condition2", null);
 	}
 
 	/**
@@ -36,11 +42,14 @@ public class Condition2 {
 	public void sleep() {
 		Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 
-		Machine.interrupt().disable();
+		boolean intStatus = Machine.interrupt().disable();
+		long startTime = (profile != null) ? Machine.timer().getTime() : 0;
 		conditionLock.release();
-		this.waitQueue.add(KThread.currentThread());
-		KThread.currentThread().sleep();
-		Machine.interrupt().enable();
+		waiterFor(KThread.currentThread()).linkBefore(waiters);
+		KThread.sleep();
+		if (profile != null)
+			profile.acquired(startTime, true);
+		Machine.interrupt().restore(intStatus);
 
 		conditionLock.acquire();
 	}
@@ -52,11 +61,10 @@ public class Condition2 {
 	public void wake() {
 		Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 
-		Machine.interrupt().disable();
-		if (!waitQueue.isEmpty())
-			((KThread) waitQueue.removeFirst()).ready();
-
-		Machine.interrupt().enable();
+		boolean intStatus = Machine.interrupt().disable();
+		if (waiters.isQueued())
+			wakeFirst();
+		Machine.interrupt().restore(intStatus);
 	}
 
 	/**
@@ -66,34 +74,119 @@ public class Condition2 {
 	public void wakeAll() {
 		Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 
-		while (!waitQueue.isEmpty())
-			wake();
+		boolean intStatus = Machine.interrupt().disable();
+		while (waiters.isQueued())
+			wakeFirst();
+		Machine.interrupt().restore(intStatus);
 	}
 
-    /**
+	/**
 	 * Atomically release the associated lock and go to sleep on
 	 * this condition variable until either (1) another thread
 	 * wakes it using <tt>wake()</tt>, or (2) the specified
 	 * <i>timeout</i> elapses.  The current thread must hold the
 	 * associated lock.  The thread will automatically reacquire
-	 * the lock before <tt>sleep()</tt> returns.
-*/
-    public void sleepFor(long timeout) {
-        Lib.assertTrue(conditionLock.isHeldByCurrentThread());
-
-        Machine.interrupt().disable();
-        conditionLock.release();
-        this.waitQueue.add(KThread.currentThread());
-        ThreadedKernel.alarm.waitUntil(timeout);
-        ThreadedKernel.alarm.cancel(KThread.currentThread());
-        Machine.interrupt().enable();
-
-        conditionLock.acquire();
-    }
+	 * the lock before <tt>sleepFor()</tt> returns.
+	 * 
+	 * @param timeout the minimum number of clock ticks to wait.
+	 * @return <tt>true</tt> if the thread was woken by <tt>wake()</tt>, or
+	 * <tt>false</tt> if the timeout elapsed.
+	 */
+	public boolean sleepFor(long timeout) {
+		Lib.assertTrue(conditionLock.isHeldByCurrentThread());
+
+		if (timeout <= 0)
+			return false;
+
+		boolean intStatus = Machine.interrupt().disable();
+		long startTime = (profile != null) ? Machine.timer().getTime() : 0;
+		conditionLock.release();
+
+		Waiter waiter = waiterFor(KThread.currentThread());
+		waiter.timedOut = false;
+		waiter.linkBefore(waiters);
+		ThreadedKernel.alarm.setTimeout(timeout, waiter);
+		KThread.sleep();
+
+		boolean woken = !waiter.timedOut;
+		if (profile != null)
+			profile.acquired(startTime, true);
+		Machine.interrupt().restore(intStatus);
+
+		conditionLock.acquire();
+
+		return woken;
+	}
+
+	/**
+	 * Take the first waiter off the list, disarm its timeout if it has one,
+	 * and wake it.
+	 */
+	private void wakeFirst() {
+		Waiter waiter = waiters.next;
+		waiter.unlink();
+		ThreadedKernel.alarm.cancelTimeout(waiter.thread);
+		waiter.thread.ready();
+	}
+
+	private static Waiter waiterFor(KThread thread) {
+		if (thread.conditionWaiter == null)
+			thread.conditionWaiter = new Waiter(thread);
+
+		return thread.conditionWaiter;
+	}
+
+	/**
+	 * A thread's entry on the list of a condition variable it is waiting on.
+	 * The list is circular and doubly linked through an entry with no thread.
+	 * A timed wait passes the entry to the alarm, which runs it when the
+	 * timeout expires to take the thread off the list.
+	 */
+	static class Waiter implements Runnable {
+		Waiter(KThread thread) {
+			this.thread = thread;
+			prev = next = this;
+		}
+
+		boolean isQueued() {
+			return next != this;
+		}
+
+		void linkBefore(Waiter head) {
+			prev = head.prev;
+			next = head;
+			head.prev.next = this;
+			head.prev = this;
+		}
+
+		void unlink() {
+			prev.next = next;
+			next.prev = prev;
+			prev = next = this;
+		}
+
+		/**
+		 * Called by the alarm when a timed wait expires.
+		 */
+		public void run() {
+			unlink();
+			timedOut = true;
+		}
+
+		KThread thread;
+
+		/** <tt>true</tt> if the last timed wait expired. */
+		boolean timedOut;
+
+		Waiter prev, next;
+	}
 
 	private Lock conditionLock;
 
-	private LinkedList<KThread> waitQueue;
+	/** The head of the list of waiting threads. */
+	private Waiter waiters;
+
+	private ContentionProfile profile;
 
 
 	// Place Condition2 testing code in the Condition2 class.
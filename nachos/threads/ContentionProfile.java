@@ -0,0 +1,200 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Contention statistics for one synchronization object: how often it was
+ * acquired, how often the acquiring thread had to wait, how long it waited,
+ * and (for locks) how long it was held. All times are in simulated ticks.
+ *
+ * <p>
+ * Profiling is off unless the <tt>ThreadedKernel.profileLocks</tt>
+ * configuration key is <tt>true</tt> or the <tt>L</tt> debug flag is set. When
+ * it is on, every <tt>Lock</tt>, <tt>Semaphore</tt> and <tt>Condition2</tt>
+ * gets a profile, named after the object or, if it has no name, after the
+ * place it was created. Objects with the same name share a profile, so the
+ * many short-lived semaphores created at one call site are reported together.
+ * A report of all profiles, worst total wait first, is
+ * printed when the machine halts.
+ */
+public final class ContentionProfile {
+	private ContentionProfile(String kind, String name) {
+		this.kind = kind;
+		this.name = name;
+	}
+
+	/**
+	 * Return the profile for a synchronization object, or <tt>null</tt> if
+	 * profiling is off.
+	 *
+	 * @param kind the kind of object, such as <tt>Lock</tt>.
+	 * @param name the name of the object, or <tt>null</tt> to name it after
+	 * the code that created it.
+	 * @return the profile, or <tt>null</tt>.
+	 */
+	static ContentionProfile create(String kind, String name) {
+		if (!enabled())
+			return null;
+
+		if (name == null)
+			name = creationSite();
+
+		String key = kind + " " + name;
+		ContentionProfile profile = profiles.get(key);
+		if (profile == null) {
+			profile = new ContentionProfile(kind, name);
+			profiles.put(key, profile);
+		}
+
+		return profile;
+	}
+
+	/**
+	 * Record an acquisition that started at <i>startTime</i> and is complete
+	 * now.
+	 *
+	 * @param startTime the time the acquiring thread asked for the object.
+	 * @param contended <tt>true</tt> if the thread had to wait.
+	 * @return the current time, which is when the object became held.
+	 */
+	long acquired(long startTime, boolean contended) {
+		long now = Machine.timer().getTime();
+
+		acquisitions++;
+		if (contended) {
+			contendedAcquisitions++;
+
+			long wait = now - startTime;
+			totalWait += wait;
+			maxWait = Math.max(maxWait, wait);
+		}
+
+		return now;
+	}
+
+	/**
+	 * Record the release of an object.
+	 *
+	 * @param holdStart the time returned by the matching
+	 * <tt>acquired()</tt>.
+	 */
+	void released(long holdStart) {
+		long hold = Machine.timer().getTime() - holdStart;
+
+		holds++;
+		totalHold += hold;
+		maxHold = Math.max(maxHold, hold);
+	}
+
+	/**
+	 * Print this profile in the format of <tt>Stats.print()</tt>.
+	 */
+	public void print() {
+		System.out.print(kind + " " + name + ": acquisitions " + acquisitions
+				+ ", contended " + contendedAcquisitions + ", wait max "
+				+ maxWait + " mean " + mean(totalWait, contendedAcquisitions));
+		if (holds > 0)
+			System.out.print(", hold max " + maxHold + " mean "
+					+ mean(totalHold, holds));
+		System.out.println();
+	}
+
+	/**
+	 * Print every profile that recorded an acquisition, the one with the most
+	 * total waiting first.
+	 */
+	public static void printAll() {
+		ArrayList<ContentionProfile> used = new ArrayList<ContentionProfile>();
+		for (ContentionProfile profile : profiles.values()) {
+			if (profile.acquisitions > 0)
+				used.add(profile);
+		}
+
+		Collections.sort(used, new Comparator<ContentionProfile>() {
+			public int compare(ContentionProfile a, ContentionProfile b) {
+				return Long.compare(b.totalWait, a.totalWait);
+			}
+		});
+
+		System.out.println("Contention: " + used.size() + " of "
+				+ profiles.size() + " profiles used");
+		for (ContentionProfile profile : used)
+			profile.print();
+	}
+
+	/**
+	 * Return <tt>true</tt> if synchronization objects should be profiled. The
+	 * first call registers the report with the machine.
+	 */
+	static boolean enabled() {
+		if (!checked) {
+			checked = true;
+			enabled = Lib.test(dbgProfile)
+					|| Config.getBoolean("ThreadedKernel.profileLocks", false);
+
+			if (enabled) {
+				Machine.addHaltReport(new Runnable() {
+					public void run() {
+						printAll();
+					}
+				});
+			}
+		}
+
+		return enabled;
+	}
+
+	private static long mean(long total, long count) {
+		return (count == 0) ? 0 : total / count;
+	}
+
+	/**
+	 * Return the first stack frame outside the profiled classes, which is the
+	 * code that created the synchronization object.
+	 */
+	private static String creationSite() {
+		StackTraceElement[] trace = new Throwable().getStackTrace();
+
+		for (int i = 0; i < trace.length; i++) {
+			String className = trace[i].getClassName();
+			if (!className.equals(ContentionProfile.class.getName())
+					&& !className.equals(Lock.class.getName())
+					&& !className.equals(Semaphore.class.getName())
+					&& !className.equals(Condition2.class.getName()))
+				return className + ":" + trace[i].getLineNumber();
+		}
+
+		return "(unknown)";
+	}
+
+	private String kind;
+
+	private String name;
+
+	private long acquisitions = 0;
+
+	private long contendedAcquisitions = 0;
+
+	private long totalWait = 0;
+
+	private long maxWait = 0;
+
+	private long holds = 0;
+
+	private long totalHold = 0;
+
+	private long maxHold = 0;
+
+	private static HashMap<String, ContentionProfile> profiles = new HashMap<String, ContentionProfile>();
+
+	private static boolean checked = false;
+
+	private static boolean enabled = false;
+
+	private static final char dbgProfile = 'L';
+}
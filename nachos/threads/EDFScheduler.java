@@ -0,0 +1,456 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * An earliest-deadline-first scheduler for periodic real-time threads.
+ *
+ * <p>
+ * A thread becomes a real-time thread by reserving a <i>budget</i> of CPU time
+ * in every <i>period</i>, to be used within <i>deadline</i> ticks of the start
+ * of the period. Each period starts a new job, which ends when the thread calls
+ * <tt>waitForNextPeriod()</tt>. A reservation is only admitted if the total
+ * density of all reservations (budget divided by deadline) stays within
+ * <tt>EDFScheduler.maxUtilization</tt> (default 1.0), which guarantees that
+ * every admitted job can meet its deadline.
+ *
+ * <p>
+ * Every queue gives access to the waiting real-time thread with the earliest
+ * absolute deadline. A thread's CPU time is checked on every timer interrupt,
+ * and a thread that has used up its budget is throttled until its next period
+ * starts. Threads without a reservation, and throttled ones, are served in
+ * FIFO order from the slack left over by the real-time threads. Deadlines are
+ * not inherited through locks or joins.
+ *
+ * <p>
+ * Finished jobs and missed deadlines are counted in the machine statistics. A
+ * job is a miss if it ends after its deadline, or if it has not ended when its
+ * next period starts.
+ */
+public class EDFScheduler extends Scheduler {
+	/**
+	 * Allocate a new EDF scheduler.
+	 */
+	public EDFScheduler() {
+		maxUtilization = Config.getDouble("EDFScheduler.maxUtilization", 1.0);
+
+		Lib.assertTrue(maxUtilization > 0 && maxUtilization <= 1.0,
+				"EDFScheduler.maxUtilization must be in (0, 1]");
+	}
+
+	/**
+	 * Allocate a new EDF thread queue.
+	 *
+	 * @param transferPriority ignored. Deadlines are not inherited.
+	 * @return a new EDF thread queue.
+	 */
+	public ThreadQueue newThreadQueue(boolean transferPriority) {
+		return new DeadlineQueue();
+	}
+
+	/**
+	 * Reserve CPU time for the specified thread, replacing any reservation it
+	 * already holds, and start its first period now. Must be called with
+	 * interrupts disabled.
+	 *
+	 * @param thread the thread to make a real-time thread.
+	 * @param period the length of each period, in ticks.
+	 * @param budget the CPU time the thread may use in each period.
+	 * @param deadline the time from the start of a period by which the
+	 * thread's job must end. Must not exceed <i>period</i>.
+	 * @return <tt>true</tt> if the reservation was admitted, or <tt>false</tt>
+	 * if it would make the set of reservations infeasible, in which case the
+	 * thread keeps its previous reservation, if any.
+	 */
+	public boolean setReservation(KThread thread, long period, long budget,
+			long deadline) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		Lib.assertTrue(budget > 0 && budget <= deadline && deadline <= period);
+
+		ThreadState state = getThreadState(thread);
+
+		double density = (double) budget / deadline;
+		double others = utilization - (state.realTime ? state.density() : 0);
+		if (others + density > maxUtilization + epsilon)
+			return false;
+
+		utilization = others + density;
+
+		state.realTime = true;
+		state.period = period;
+		state.budget = budget;
+		state.relativeDeadline = deadline;
+		state.jobDone = true;
+		state.nextRelease = Machine.timer().getTime();
+		release(state);
+
+		return true;
+	}
+
+	/**
+	 * Remove the reservation of the specified thread, making it a background
+	 * thread. Must be called with interrupts disabled.
+	 *
+	 * @param thread the thread whose reservation to remove.
+	 */
+	public void clearReservation(KThread thread) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		ThreadState state = getThreadState(thread);
+		if (!state.realTime)
+			return;
+
+		utilization -= state.density();
+
+		state.realTime = false;
+		if (state.depleted)
+			unthrottle(state);
+
+		if (state.waitingOn != null)
+			state.waitingOn.update(state);
+	}
+
+	/**
+	 * End the current job of the current thread, which must be a real-time
+	 * thread, and sleep until its next period starts.
+	 */
+	public void waitForNextPeriod() {
+		boolean intStatus = Machine.interrupt().disable();
+
+		ThreadState state = getThreadState(KThread.currentThread());
+		Lib.assertTrue(state.realTime);
+
+		long time = Machine.timer().getTime();
+
+		Machine.recordRealTimeJob(time > state.deadline);
+		state.jobDone = true;
+		if (state.depleted)
+			unthrottle(state);
+
+		long wait = state.nextRelease - time;
+
+		Machine.interrupt().restore(intStatus);
+
+		if (wait > 0)
+			ThreadedKernel.alarm.waitUntil(wait);
+
+		// a timer interrupt may already have started the new period
+		intStatus = Machine.interrupt().disable();
+		if (state.jobDone && state.nextRelease <= Machine.timer().getTime())
+			release(state);
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Return the total density of the admitted reservations.
+	 *
+	 * @return the sum of budget divided by deadline over all real-time
+	 * threads.
+	 */
+	public double getUtilization() {
+		return utilization;
+	}
+
+	/**
+	 * Enforce budgets. Start the next period of every throttled thread whose
+	 * period has come, and throttle <i>thread</i> if it has used up its budget.
+	 * A thread whose job is still running when its next period starts is
+	 * charged a missed deadline and moved on to the new period.
+	 *
+	 * @param thread the thread that was running.
+	 */
+	public void chargeQuantum(KThread thread) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		long time = Machine.timer().getTime();
+
+		for (ThreadState state = firstThrottled; state != null;) {
+			ThreadState next = state.nextThrottled;
+			if (state.nextRelease <= time)
+				release(state);
+			state = next;
+		}
+
+		ThreadState state = getThreadState(thread);
+		if (!state.realTime)
+			return;
+
+		if (state.nextRelease <= time)
+			release(state);
+		else if (!state.depleted
+				&& thread.getRunningTicks() - state.budgetStart >= state.budget)
+			throttle(state);
+	}
+
+	/**
+	 * Return the scheduling state of the specified thread.
+	 *
+	 * @param thread the thread whose scheduling state to return.
+	 * @return the scheduling state of the specified thread.
+	 */
+	protected ThreadState getThreadState(KThread thread) {
+		if (thread.schedulingState == null)
+			thread.schedulingState = new ThreadState(thread);
+
+		return (ThreadState) thread.schedulingState;
+	}
+
+	/**
+	 * Start the next period of a real-time thread that is due, skipping any
+	 * periods that have already passed, and give it a fresh budget.
+	 */
+	private void release(ThreadState state) {
+		long time = Machine.timer().getTime();
+
+		if (!state.jobDone)
+			Machine.recordRealTimeJob(true);
+
+		long start = state.nextRelease;
+		if (time > start)
+			start += (time - start) / state.period * state.period;
+
+		state.deadline = start + state.relativeDeadline;
+		state.nextRelease = start + state.period;
+		state.budgetStart = state.thread.getRunningTicks();
+		state.jobDone = false;
+
+		if (state.depleted)
+			unthrottle(state);
+
+		if (state.waitingOn != null)
+			state.waitingOn.update(state);
+	}
+
+	private void throttle(ThreadState state) {
+		state.depleted = true;
+		state.nextThrottled = firstThrottled;
+		firstThrottled = state;
+
+		if (state.waitingOn != null)
+			state.waitingOn.update(state);
+	}
+
+	private void unthrottle(ThreadState state) {
+		state.depleted = false;
+
+		if (firstThrottled == state) {
+			firstThrottled = state.nextThrottled;
+		}
+		else {
+			ThreadState prev = firstThrottled;
+			while (prev.nextThrottled != state)
+				prev = prev.nextThrottled;
+			prev.nextThrottled = state.nextThrottled;
+		}
+		state.nextThrottled = null;
+	}
+
+	/**
+	 * A <tt>ThreadQueue</tt> that sorts threads by absolute deadline, with
+	 * background threads last in FIFO order.
+	 */
+	protected class DeadlineQueue extends ThreadQueue {
+		public void waitForAccess(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			thread.setWaitQueue(this);
+
+			ThreadState state = getThreadState(thread);
+			Lib.assertTrue(state.waitingOn == null);
+
+			if (size == heap.length) {
+				ThreadState[] newHeap = new ThreadState[heap.length * 2];
+				System.arraycopy(heap, 0, newHeap, 0, size);
+				heap = newHeap;
+			}
+
+			state.waitingOn = this;
+			state.waitTime = numWaits++;
+			state.key = state.key();
+			siftUp(size++, state);
+		}
+
+		public KThread nextThread() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			if (size == 0)
+				return null;
+
+			ThreadState next = heap[0];
+
+			ThreadState last = heap[--size];
+			heap[size] = null;
+			if (size > 0)
+				siftDown(0, last);
+
+			next.heapIndex = -1;
+			next.waitingOn = null;
+
+			return next.thread;
+		}
+
+		/**
+		 * Nothing to do: deadlines are not inherited.
+		 */
+		public void acquire(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+		}
+
+		public void print() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			for (int i = 0; i < size; i++)
+				System.out.print(heap[i].thread + " ");
+		}
+
+		/**
+		 * Restore the heap order after the deadline or budget of a waiting
+		 * thread has changed.
+		 */
+		void update(ThreadState state) {
+			state.key = state.key();
+			siftUp(state.heapIndex, state);
+			siftDown(state.heapIndex, state);
+		}
+
+		/**
+		 * Return <tt>true</tt> if <i>a</i> should leave this queue before
+		 * <i>b</i>.
+		 */
+		private boolean before(ThreadState a, ThreadState b) {
+			if (a.key != b.key)
+				return a.key < b.key;
+
+			return a.waitTime < b.waitTime;
+		}
+
+		private void siftUp(int index, ThreadState state) {
+			while (index > 0) {
+				int parent = (index - 1) / 2;
+				if (!before(state, heap[parent]))
+					break;
+
+				place(index, heap[parent]);
+				index = parent;
+			}
+
+			place(index, state);
+		}
+
+		private void siftDown(int index, ThreadState state) {
+			while (true) {
+				int child = 2 * index + 1;
+				if (child >= size)
+					break;
+
+				if (child + 1 < size && before(heap[child + 1], heap[child]))
+					child++;
+
+				if (!before(heap[child], state))
+					break;
+
+				place(index, heap[child]);
+				index = child;
+			}
+
+			place(index, state);
+		}
+
+		private void place(int index, ThreadState state) {
+			heap[index] = state;
+			state.heapIndex = index;
+		}
+
+		/** The waiting threads, as a binary heap. */
+		private ThreadState[] heap = new ThreadState[8];
+
+		private int size = 0;
+	}
+
+	/**
+	 * The scheduling state of a thread: its reservation, if it has one, the
+	 * deadline and budget of its current job, and its place in the queue it
+	 * is waiting on.
+	 */
+	protected class ThreadState {
+		/**
+		 * Allocate a new <tt>ThreadState</tt> object and associate it with the
+		 * specified thread. The thread starts out without a reservation.
+		 *
+		 * @param thread the thread this state belongs to.
+		 */
+		public ThreadState(KThread thread) {
+			this.thread = thread;
+		}
+
+		/**
+		 * Return the key this thread is ordered by: its absolute deadline if
+		 * it is a real-time thread with budget left, or
+		 * <tt>Long.MAX_VALUE</tt> if it runs in the background.
+		 */
+		long key() {
+			return (realTime && !depleted) ? deadline : Long.MAX_VALUE;
+		}
+
+		double density() {
+			return (double) budget / relativeDeadline;
+		}
+
+		/** The thread with which this object is associated. */
+		protected KThread thread;
+
+		/** <tt>true</tt> if the thread holds a reservation. */
+		private boolean realTime = false;
+
+		private long period;
+
+		private long budget;
+
+		private long relativeDeadline;
+
+		/** The absolute deadline of the current job. */
+		private long deadline;
+
+		/** The start of the next period. */
+		private long nextRelease;
+
+		/** The running time of the thread when the current job started. */
+		private long budgetStart;
+
+		/** <tt>true</tt> if the current job has ended. */
+		private boolean jobDone;
+
+		/** <tt>true</tt> if the current job has used up its budget. */
+		private boolean depleted = false;
+
+		/** The next thread on the list of throttled threads. */
+		private ThreadState nextThrottled = null;
+
+		/** The queue this thread is waiting on, or <tt>null</tt>. */
+		private DeadlineQueue waitingOn = null;
+
+		/** This thread's index in the heap of <tt>waitingOn</tt>. */
+		private int heapIndex = -1;
+
+		/** The key this thread is ordered by in <tt>waitingOn</tt>. */
+		private long key;
+
+		/** The order in which this thread started waiting. */
+		private long waitTime;
+	}
+
+	/** Slack allowed in the admission test for rounding. */
+	private static final double epsilon = 1e-9;
+
+	private double maxUtilization;
+
+	/** The total density of the admitted reservations. */
+	private double utilization = 0;
+
+	/** The threads that have used up their budget, in no particular order. */
+	private ThreadState firstThrottled = null;
+
+	/** A counter used to order waiting threads. */
+	private long numWaits = 0;
+}
@@ -70,10 +70,22 @@ public class KThread {
 			name = "main";
 			restoreState();
 
+			statsInterval = Config.getInteger(
+					"ThreadedKernel.threadStatsInterval", 0);
+			nextStatsDump = statsInterval;
+
 			createIdleThread();
 		}
 
 		this.isBeingJoined = false;
+
+		// add this thread to the list of live threads
+		prevLive = lastLive;
+		if (lastLive != null)
+			lastLive.nextLive = this;
+		else
+			firstLive = this;
+		lastLive = this;
 	}
 
 	/**
@@ -207,7 +219,19 @@ public class KThread {
 		Lib.assertTrue(toBeDestroyed == null);
 		toBeDestroyed = currentThread;
 
-		currentThread.status = statusFinished;
+		currentThread.setStatus(statusFinished);
+
+		// remove the current thread from the list of live threads
+		KThread thread = currentThread;
+		if (thread.prevLive != null)
+			thread.prevLive.nextLive = thread.nextLive;
+		else
+			firstLive = thread.nextLive;
+		if (thread.nextLive != null)
+			thread.nextLive.prevLive = thread.prevLive;
+		else
+			lastLive = thread.prevLive;
+		thread.prevLive = thread.nextLive = null;
 
 		if (currentThread.isBeingJoined) {
 		    currentThread.parentThread.ready();
@@ -239,6 +263,12 @@ public class KThread {
 
 		Lib.assertTrue(currentThread.status == statusRunning);
 
+		if (preempting)
+			currentThread.preemptiveYields++;
+		else
+			currentThread.voluntaryYields++;
+		preempting = false;
+
 		boolean intStatus = Machine.interrupt().disable();
 
 		currentThread.ready();
@@ -265,7 +295,7 @@ public class KThread {
 		Lib.assertTrue(Machine.interrupt().disabled());
 
 		if (currentThread.status != statusFinished)
-			currentThread.status = statusBlocked;
+			currentThread.setStatus(statusBlocked);
 
 		runNextThread();
 	}
@@ -280,7 +310,7 @@ public class KThread {
 		Lib.assertTrue(Machine.interrupt().disabled());
 		Lib.assertTrue(status != statusReady);
 
-		status = statusReady;
+		setStatus(statusReady);
 		if (this != idleThread)
 			readyQueue.waitForAccess(this);
 
@@ -350,10 +380,17 @@ public class KThread {
 	private static void createIdleThread() {
 		Lib.assertTrue(idleThread == null);
 
+		final boolean tickless = Config.getBoolean("ThreadedKernel.tickless",
+				false);
+
 		idleThread = new KThread(new Runnable() {
 			public void run() {
-				while (true)
-					KThread.yield();
+				while (true) {
+					if (tickless)
+						idle();
+					else
+						KThread.yield();
+				}
 			}
 		});
 		idleThread.setName("idle");
@@ -363,6 +400,54 @@ public class KThread {
 		idleThread.fork();
 	}
 
+	/**
+	 * Called repeatedly by the idle thread in tickless mode. If no thread is
+	 * ready, suppress the timer until the alarm next needs it, or until a
+	 * thread becomes ready if no thread is sleeping, and let simulated
+	 * time jump to the next pending interrupt, then dispatch the CPU to any
+	 * thread that became ready, as <tt>yield()</tt> would.
+	 */
+	private static void idle() {
+		Lib.assertTrue(currentThread == idleThread);
+
+		boolean intStatus = Machine.interrupt().disable();
+
+		KThread nextThread = readyQueue.nextThread();
+		if (nextThread == null) {
+			long wakeTime = (ThreadedKernel.alarm == null) ? Long.MAX_VALUE
+					: ThreadedKernel.alarm.nextWakeTime();
+
+			// the alarm wakes threads at the first interrupt after wakeTime;
+			// with no thread sleeping on it, only a device (the console or
+			// the network) can make a thread ready, so the timer can wait
+			if (wakeTime != Long.MAX_VALUE)
+				Machine.timer().suppressUntil(wakeTime + 1);
+			else
+				Machine.timer().suppressUntil(Long.MAX_VALUE);
+
+			if (!Machine.interrupt().idle()) {
+				// nothing can ever happen, so fall back to spinning
+				Machine.timer().resume();
+				Machine.interrupt().restore(intStatus);
+				KThread.yield();
+				return;
+			}
+
+			nextThread = readyQueue.nextThread();
+			if (nextThread == null) {
+				Machine.interrupt().restore(intStatus);
+				return;
+			}
+		}
+
+		Machine.timer().resume();
+
+		currentThread.ready();
+		nextThread.run();
+
+		Machine.interrupt().restore(intStatus);
+	}
+
 	/**
 	 * Determine the next thread to run, then dispatch the CPU to the thread
 	 * using <tt>run()</tt>.
@@ -404,6 +489,9 @@ public class KThread {
 		Lib.debug(dbgThread, "Switching from: " + currentThread.toString()
 				+ " to: " + toString());
 
+		if (this != currentThread)
+			contextSwitches++;
+
 		currentThread = this;
 
 		tcb.contextSwitch();
@@ -424,7 +512,7 @@ public class KThread {
 
 		Machine.autoGrader().runningThread(this);
 
-		status = statusRunning;
+		setStatus(statusRunning);
 
 		if (toBeDestroyed != null) {
 			toBeDestroyed.tcb.destroy();
@@ -458,6 +546,136 @@ public class KThread {
 		private int which;
 	}
 
+	/**
+	 * Yield the CPU on behalf of the timer. The same as <tt>yield()</tt>, but
+	 * counted as a preemption rather than a voluntary yield.
+	 */
+	static void preempt() {
+		preempting = true;
+		KThread.yield();
+	}
+
+	/**
+	 * Record that this thread is about to block waiting for access to
+	 * <i>queue</i>, so that the time it spends blocked is also charged to the
+	 * queue. Called by <tt>ThreadQueue</tt> implementations from
+	 * <tt>waitForAccess()</tt>.
+	 * 
+	 * @param queue the queue this thread is waiting on.
+	 */
+	void setWaitQueue(ThreadQueue queue) {
+		if (queue != readyQueue)
+			waitQueue = queue;
+	}
+
+	/**
+	 * Charge the time since the last status change to the current status, and
+	 * change to <i>newStatus</i>.
+	 */
+	private void setStatus(int newStatus) {
+		long now = Machine.timer().getTime();
+		long elapsed = now - statusSince;
+
+		if (status == statusRunning) {
+			runningTicks += elapsed;
+		}
+		else if (status == statusReady) {
+			readyTicks += elapsed;
+		}
+		else if (status == statusBlocked) {
+			blockedTicks += elapsed;
+			if (waitQueue != null) {
+				waitQueue.blockedTicks += elapsed;
+				waitQueue = null;
+			}
+		}
+
+		statusSince = now;
+		status = newStatus;
+	}
+
+	/**
+	 * Return the simulated time this thread has spent running, including the
+	 * current run if it is running now.
+	 * 
+	 * @return the running time of this thread.
+	 */
+	long getRunningTicks() {
+		if (status == statusRunning)
+			return runningTicks + (Machine.timer().getTime() - statusSince);
+
+		return runningTicks;
+	}
+
+	/**
+	 * Return a snapshot of this thread's scheduling statistics, including the
+	 * time spent so far in its current status.
+	 * 
+	 * @return the statistics of this thread.
+	 */
+	public ThreadStats getThreadStats() {
+		boolean intStatus = Machine.interrupt().disable();
+
+		ThreadStats stats = new ThreadStats();
+		stats.name = name;
+		stats.id = id;
+		stats.runningTicks = runningTicks;
+		stats.readyTicks = readyTicks;
+		stats.blockedTicks = blockedTicks;
+		stats.contextSwitches = contextSwitches;
+		stats.voluntaryYields = voluntaryYields;
+		stats.preemptiveYields = preemptiveYields;
+
+		long elapsed = Machine.timer().getTime() - statusSince;
+		if (status == statusRunning)
+			stats.runningTicks += elapsed;
+		else if (status == statusReady)
+			stats.readyTicks += elapsed;
+		else if (status == statusBlocked)
+			stats.blockedTicks += elapsed;
+
+		Machine.interrupt().restore(intStatus);
+
+		return stats;
+	}
+
+	/**
+	 * Return a snapshot of the scheduling statistics of every thread that has
+	 * been created and has not finished, in order of creation.
+	 * 
+	 * @return the statistics of the live threads.
+	 */
+	public static ThreadStats[] snapshotThreadStats() {
+		boolean intStatus = Machine.interrupt().disable();
+
+		int count = 0;
+		for (KThread thread = firstLive; thread != null; thread = thread.nextLive)
+			count++;
+
+		ThreadStats[] stats = new ThreadStats[count];
+		int i = 0;
+		for (KThread thread = firstLive; thread != null; thread = thread.nextLive)
+			stats[i++] = thread.getThreadStats();
+
+		Machine.interrupt().restore(intStatus);
+
+		return stats;
+	}
+
+	/**
+	 * Print the statistics of every live thread if
+	 * <tt>ThreadedKernel.threadStatsInterval</tt> ticks have passed since they
+	 * were last printed. Called from the timer interrupt handler.
+	 */
+	static void dumpThreadStatsIfDue() {
+		if (statsInterval <= 0 || Machine.timer().getTime() < nextStatsDump)
+			return;
+
+		ThreadStats.printAll();
+
+		nextStatsDump = Machine.timer().getTime() + statsInterval;
+	}
+
 	/**
 	 * Tests whether this module is working.
 	 */
@@ -480,6 +698,18 @@ public class KThread {
 	 */
 	public Object schedulingState = null;
 
+	/** This thread's entry on the alarm's timing wheel, once it has slept. */
+	Alarm.Wakeup alarmWakeup = null;
+
+	/** This thread's entry on condition variable lists, once it has waited. */
+	Condition2.Waiter conditionWaiter = null;
+
+	/**
+	 * The next thread in the <tt>RoundRobinScheduler</tt> queue this thread is
+	 * waiting on. A thread waits on at most one queue at a time.
+	 */
+	KThread nextWaiter = null;
+
 	private static final int statusNew = 0;
 
 	private static final int statusReady = 1;
@@ -499,6 +729,27 @@ public class KThread {
 
 	private String name = "(unnamed thread)";
 
+	/** The time of the last status change. */
+	private long statusSince = Machine.timer().getTime();
+
+	private long runningTicks = 0;
+
+	private long readyTicks = 0;
+
+	private long blockedTicks = 0;
+
+	private int contextSwitches = 0;
+
+	private int voluntaryYields = 0;
+
+	private int preemptiveYields = 0;
+
+	/** The queue this thread is blocked on, if known. */
+	private ThreadQueue waitQueue = null;
+
+	/** The neighbours of this thread in the list of live threads. */
+	private KThread prevLive = null, nextLive = null;
+
 	private Runnable target;
 
 	private TCB tcb;
@@ -519,4 +770,15 @@ public class KThread {
 	private static KThread toBeDestroyed = null;
 
 	private static KThread idleThread = null;
+
+	/** The first and last threads in the list of live threads. */
+	private static KThread firstLive = null, lastLive = null;
+
+	/** <tt>true</tt> while <tt>preempt()</tt> is yielding. */
+	private static boolean preempting = false;
+
+	/** Ticks between dumps of the thread statistics, or 0 for none. */
+	private static long statsInterval = 0;
+
+	private static long nextStatsDump;
 }
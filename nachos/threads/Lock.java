@@ -23,6 +23,17 @@ public class Lock {
 	 * Allocate a new lock. The lock will initially be <i>free</i>.
 	 */
 	public Lock() {
+		this(null);
+	}
+
+	/**
+	 * Allocate a new named lock. The name identifies the lock in contention
+	 * reports.
+	 * 
+	 * @param name the name of this lock.
+	 */
+	public Lock(String name) {
+		profile = ContentionProfile.create("Lock", name);
 	}
 
 	/**
@@ -34,8 +45,10 @@ public class Lock {
 
 		boolean intStatus = Machine.interrupt().disable();
 		KThread thread = KThread.currentThread();
+		long startTime = (profile != null) ? Machine.timer().getTime() : 0;
+		boolean contended = (lockHolder != null);
 
-		if (lockHolder != null) {
+		if (contended) {
 			waitQueue.waitForAccess(thread);
 			KThread.sleep();
 		}
@@ -46,6 +59,9 @@ public class Lock {
 
 		Lib.assertTrue(lockHolder == thread);
 
+		if (profile != null)
+			holdStart = profile.acquired(startTime, contended);
+
 		Machine.interrupt().restore(intStatus);
 	}
 
@@ -57,6 +73,9 @@ public class Lock {
 
 		boolean intStatus = Machine.interrupt().disable();
 
+		if (profile != null)
+			profile.released(holdStart);
+
 		if ((lockHolder = waitQueue.nextThread()) != null)
 			lockHolder.ready();
 
@@ -74,6 +93,10 @@ public class Lock {
 
 	private KThread lockHolder = null;
 
+	private ContentionProfile profile;
+
+	private long holdStart;
+
 	private ThreadQueue waitQueue = ThreadedKernel.scheduler
 			.newThreadQueue(true);
 }
@@ -2,29 +2,34 @@ package nachos.threads;
 
 import nachos.machine.*;
 
-import java.util.TreeSet;
-import java.util.HashSet;
-import java.util.Iterator;
-
 /**
  * A scheduler that chooses threads using a lottery.
- * 
+ *
  * <p>
  * A lottery scheduler associates a number of tickets with each thread. When a
  * thread needs to be dequeued, a random lottery is held, among all the tickets
  * of all the threads waiting to be dequeued. The thread that holds the winning
  * ticket is chosen.
- * 
+ *
  * <p>
  * Note that a lottery scheduler must be able to handle a lot of tickets
  * (sometimes billions), so it is not acceptable to maintain state for every
  * ticket.
- * 
+ *
  * <p>
  * A lottery scheduler must partially solve the priority inversion problem; in
  * particular, tickets must be transferred through locks, and through joins.
  * Unlike a priority scheduler, these tickets add (as opposed to just taking the
  * maximum).
+ *
+ * <p>
+ * Each queue keeps the effective tickets of its waiters in a Fenwick tree, so
+ * holding a lottery and changing a waiter's tickets both take logarithmic time
+ * in the number of waiters. A queue that transfers tickets donates the total
+ * of its waiters' tickets to its owner, and changes to that total are added
+ * to the owner (and on along the chain of owners) as they happen. Winners are
+ * drawn with <tt>Lib.random()</tt>, so runs with the same seed are
+ * reproducible.
  */
 public class LotteryScheduler extends PriorityScheduler {
 	/**
@@ -35,13 +40,375 @@ public class LotteryScheduler extends PriorityScheduler {
 
 	/**
 	 * Allocate a new lottery thread queue.
-	 * 
+	 *
 	 * @param transferPriority <tt>true</tt> if this queue should transfer
 	 * tickets from waiting threads to the owning thread.
 	 * @return a new lottery thread queue.
 	 */
 	public ThreadQueue newThreadQueue(boolean transferPriority) {
-		// implement me
-		return null;
+		return new LotteryQueue(transferPriority);
+	}
+
+	public void setPriority(KThread thread, int priority) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		Lib.assertTrue(priority >= priorityMinimum
+				&& priority <= priorityMaximum);
+
+		getThreadState(thread).setPriority(priority);
+	}
+
+	public boolean increasePriority() {
+		boolean intStatus = Machine.interrupt().disable();
+		boolean ret = true;
+
+		KThread thread = KThread.currentThread();
+
+		int priority = getPriority(thread);
+		if (priority == priorityMaximum)
+			ret = false;
+		else
+			setPriority(thread, priority + 1);
+
+		Machine.interrupt().restore(intStatus);
+		return ret;
+	}
+
+	public boolean decreasePriority() {
+		boolean intStatus = Machine.interrupt().disable();
+		boolean ret = true;
+
+		KThread thread = KThread.currentThread();
+
+		int priority = getPriority(thread);
+		if (priority == priorityMinimum)
+			ret = false;
+		else
+			setPriority(thread, priority - 1);
+
+		Machine.interrupt().restore(intStatus);
+		return ret;
+	}
+
+	/**
+	 * The default number of tickets for a new thread.
+	 */
+	public static final int priorityDefault = 1;
+
+	/**
+	 * The minimum number of tickets that a thread can have.
+	 */
+	public static final int priorityMinimum = 1;
+
+	/**
+	 * The maximum number of tickets that a thread can have.
+	 */
+	public static final int priorityMaximum = Integer.MAX_VALUE;
+
+	/**
+	 * Return the scheduling state of the specified thread.
+	 *
+	 * @param thread the thread whose scheduling state to return.
+	 * @return the scheduling state of the specified thread.
+	 */
+	protected ThreadState getThreadState(KThread thread) {
+		if (thread.schedulingState == null)
+			thread.schedulingState = new LotteryThreadState(thread);
+
+		return (ThreadState) thread.schedulingState;
+	}
+
+	/**
+	 * A <tt>ThreadQueue</tt> that holds a lottery among its waiters' tickets.
+	 */
+	protected class LotteryQueue extends ThreadQueue {
+		LotteryQueue(boolean transferPriority) {
+			this.transferPriority = transferPriority;
+		}
+
+		public void waitForAccess(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+			thread.setWaitQueue(this);
+			((LotteryThreadState) getThreadState(thread)).waitForAccess(this);
+		}
+
+		public void acquire(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+			((LotteryThreadState) getThreadState(thread)).acquire(this);
+		}
+
+		public KThread nextThread() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			LotteryThreadState next = pickNextThread();
+			if (next == null) {
+				setOwner(null);
+				return null;
+			}
+
+			remove(next);
+			next.waitingOn = null;
+
+			next.acquire(this);
+
+			return next.thread;
+		}
+
+		/**
+		 * Hold a lottery among the waiting threads, without modifying the
+		 * state of this queue.
+		 *
+		 * @return the winning thread, or <tt>null</tt> if no thread is waiting.
+		 */
+		protected LotteryThreadState pickNextThread() {
+			if (size == 0)
+				return null;
+
+			long ticket = Lib.random(total);
+
+			// descend the Fenwick tree to the slot holding the winning ticket
+			int slot = 0;
+			for (int step = Integer.highestOneBit(capacity); step > 0; step >>= 1) {
+				int next = slot + step;
+				if (next <= capacity && tree[next] <= ticket) {
+					ticket -= tree[next];
+					slot = next;
+				}
+			}
+
+			return waiters[slot];
+		}
+
+		public void print() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			for (int i = 0; i < capacity; i++) {
+				if (waiters[i] != null)
+					System.out.print(waiters[i].thread + " ");
+			}
+		}
+
+		/**
+		 * Add a waiting thread to this queue.
+		 */
+		void add(LotteryThreadState state) {
+			if (numFree == 0)
+				grow();
+
+			int slot = freeSlots[--numFree];
+			waiters[slot] = state;
+			state.slot = slot;
+			size++;
+
+			adjust(slot, state.effectiveTickets);
+		}
+
+		/**
+		 * Remove a waiting thread from this queue.
+		 */
+		void remove(LotteryThreadState state) {
+			int slot = state.slot;
+			Lib.assertTrue(waiters[slot] == state);
+
+			adjust(slot, -state.effectiveTickets);
+
+			waiters[slot] = null;
+			state.slot = -1;
+			freeSlots[numFree++] = slot;
+			size--;
+		}
+
+		/**
+		 * Add <i>delta</i> to the tickets held by a waiting thread.
+		 */
+		void update(LotteryThreadState state, long delta) {
+			adjust(state.slot, delta);
+		}
+
+		/**
+		 * Make <i>owner</i> the thread holding the resource guarded by this
+		 * queue, moving this queue's donation to it from the previous owner.
+		 */
+		void setOwner(LotteryThreadState owner) {
+			if (this.owner == owner)
+				return;
+
+			if (this.owner != null)
+				this.owner.addTickets(-donated());
+
+			this.owner = owner;
+
+			if (owner != null)
+				owner.addTickets(donated());
+		}
+
+		private long donated() {
+			return transferPriority ? total : 0;
+		}
+
+		/**
+		 * Add <i>delta</i> to the tickets in <i>slot</i>, and pass the change
+		 * on to the owner of this queue.
+		 */
+		private void adjust(int slot, long delta) {
+			if (delta == 0)
+				return;
+
+			for (int i = slot + 1; i <= capacity; i += i & -i)
+				tree[i] += delta;
+
+			total += delta;
+
+			if (transferPriority && owner != null)
+				owner.addTickets(delta);
+		}
+
+		/**
+		 * Double the number of slots and rebuild the Fenwick tree over them.
+		 */
+		private void grow() {
+			int newCapacity = capacity * 2;
+
+			LotteryThreadState[] newWaiters = new LotteryThreadState[newCapacity];
+			System.arraycopy(waiters, 0, newWaiters, 0, capacity);
+
+			int[] newFreeSlots = new int[newCapacity];
+			for (int i = newCapacity - 1; i >= capacity; i--)
+				newFreeSlots[numFree++] = i;
+
+			long[] newTree = new long[newCapacity + 1];
+			for (int i = 1; i <= newCapacity; i++) {
+				if (newWaiters[i - 1] != null)
+					newTree[i] += newWaiters[i - 1].effectiveTickets;
+
+				int parent = i + (i & -i);
+				if (parent <= newCapacity)
+					newTree[parent] += newTree[i];
+			}
+
+			waiters = newWaiters;
+			freeSlots = newFreeSlots;
+			tree = newTree;
+			capacity = newCapacity;
+		}
+
+		/**
+		 * <tt>true</tt> if this queue should transfer tickets from waiting
+		 * threads to the owning thread.
+		 */
+		public boolean transferPriority;
+
+		private int capacity = 8;
+
+		/** The waiting thread in each slot, or <tt>null</tt>. */
+		private LotteryThreadState[] waiters = new LotteryThreadState[capacity];
+
+		/** A Fenwick tree, indexed from 1, of the tickets in each slot. */
+		private long[] tree = new long[capacity + 1];
+
+		private int[] freeSlots = new int[] { 7, 6, 5, 4, 3, 2, 1, 0 };
+
+		private int numFree = capacity;
+
+		private int size = 0;
+
+		/** The total number of tickets held by the waiting threads. */
+		private long total = 0;
+
+		/** The thread holding the resource guarded by this queue. */
+		private LotteryThreadState owner = null;
+	}
+
+	/**
+	 * The scheduling state of a thread in a lottery scheduler. The priority of
+	 * the thread is the number of tickets it holds, and its effective priority
+	 * is that plus the tickets donated by the waiters of every queue it owns.
+	 */
+	protected class LotteryThreadState extends ThreadState {
+		/**
+		 * Allocate a new <tt>LotteryThreadState</tt> object and associate it
+		 * with the specified thread.
+		 *
+		 * @param thread the thread this state belongs to.
+		 */
+		public LotteryThreadState(KThread thread) {
+			super(thread);
+
+			effectiveTickets = priority;
+		}
+
+		/**
+		 * Return the number of tickets held by the associated thread,
+		 * including donated tickets, limited to <tt>priorityMaximum</tt>.
+		 *
+		 * @return the effective tickets of the associated thread.
+		 */
+		public int getEffectivePriority() {
+			return (int) Math.min(effectiveTickets, priorityMaximum);
+		}
+
+		/**
+		 * Set the number of tickets held by the associated thread.
+		 *
+		 * @param priority the new number of tickets.
+		 */
+		public void setPriority(int priority) {
+			if (this.priority == priority)
+				return;
+
+			long delta = (long) priority - this.priority;
+			this.priority = priority;
+
+			addTickets(delta);
+		}
+
+		/**
+		 * Called when the associated thread starts waiting on the specified
+		 * lottery queue.
+		 *
+		 * @param waitQueue the queue that the associated thread is now waiting
+		 * on.
+		 */
+		public void waitForAccess(LotteryQueue waitQueue) {
+			Lib.assertTrue(waitingOn == null);
+
+			waitingOn = waitQueue;
+			waitQueue.add(this);
+		}
+
+		/**
+		 * Called when the associated thread has acquired access to whatever is
+		 * guarded by <tt>waitQueue</tt>.
+		 *
+		 * @param waitQueue the queue the associated thread now owns.
+		 */
+		public void acquire(LotteryQueue waitQueue) {
+			Lib.assertTrue(waitingOn != waitQueue);
+
+			waitQueue.setOwner(this);
+		}
+
+		/**
+		 * Add <i>delta</i> to the effective tickets of the associated thread,
+		 * and to those of the queue it is waiting on.
+		 */
+		void addTickets(long delta) {
+			if (delta == 0)
+				return;
+
+			effectiveTickets += delta;
+
+			if (waitingOn != null)
+				waitingOn.update(this, delta);
+		}
+
+		/** The tickets held by the associated thread, including donations. */
+		protected long effectiveTickets;
+
+		/** The queue this thread is waiting on, or <tt>null</tt>. */
+		private LotteryQueue waitingOn = null;
+
+		/** This thread's slot in <tt>waitingOn</tt>. */
+		private int slot = -1;
 	}
 }
@@ -0,0 +1,308 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A multi-level feedback queue scheduler. Threads are kept at one of
+ * <tt>MLFQScheduler.levels</tt> levels (default 4), level 0 being the most
+ * favored. The next thread to be dequeued is always a thread at the lowest
+ * numbered level among the waiting threads, and among the threads at that
+ * level, the one that started waiting first.
+ *
+ * <p>
+ * Every thread starts at level 0. Usage is measured in timer interrupts: a
+ * thread at level <i>n</i> may be running during 2<sup><i>n</i></sup> timer
+ * interrupts before it is moved down a level. Time spent blocked does not
+ * count, so a thread that mostly waits stays near the top. A thread that
+ * blocks on the console, the network, or the alarm is also moved up a level,
+ * with a fresh allotment.
+ *
+ * <p>
+ * To keep CPU-bound threads from starving, every thread is returned to level 0
+ * every <tt>MLFQScheduler.resetInterval</tt> ticks (default 50000). The reset
+ * is applied lazily: threads and queues notice it the next time they are used.
+ */
+public class MLFQScheduler extends Scheduler {
+	/**
+	 * Allocate a new multi-level feedback queue scheduler.
+	 */
+	public MLFQScheduler() {
+		levels = Config.getInteger("MLFQScheduler.levels", 4);
+		resetInterval = Config.getInteger("MLFQScheduler.resetInterval", 50000);
+
+		Lib.assertTrue(levels >= 1 && levels <= 31,
+				"MLFQScheduler.levels must be between 1 and 31");
+		Lib.assertTrue(resetInterval > 0);
+
+		nextReset = resetInterval;
+	}
+
+	/**
+	 * Allocate a new multi-level thread queue.
+	 *
+	 * @param transferPriority ignored. Levels are not donated.
+	 * @return a new multi-level thread queue.
+	 */
+	public ThreadQueue newThreadQueue(boolean transferPriority) {
+		return new LevelQueue();
+	}
+
+	/**
+	 * Return the level of the specified thread. Level 0 is the most favored.
+	 *
+	 * @param thread the thread whose level to return.
+	 * @return the thread's current level.
+	 */
+	public int getPriority(KThread thread) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		return getThreadState(thread).getLevel();
+	}
+
+	public int getEffectivePriority(KThread thread) {
+		return getPriority(thread);
+	}
+
+	/**
+	 * Charge a timer quantum to the specified thread, moving it down a level
+	 * once it has used its allotment at its current level. Also starts a
+	 * reset if one is due.
+	 *
+	 * @param thread the thread that used the quantum.
+	 */
+	public void chargeQuantum(KThread thread) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		if (Machine.timer().getTime() >= nextReset) {
+			epoch++;
+			nextReset = Machine.timer().getTime() + resetInterval;
+		}
+
+		ThreadState state = getThreadState(thread);
+		int level = state.getLevel();
+
+		if (++state.used >= (1 << level) && level < levels - 1) {
+			state.level = level + 1;
+			state.used = 0;
+		}
+	}
+
+	/**
+	 * Move the current thread up a level, with a fresh allotment, because it
+	 * is about to block for I/O.
+	 */
+	public void waitingForIO() {
+		boolean intStatus = Machine.interrupt().disable();
+
+		ThreadState state = getThreadState(KThread.currentThread());
+		state.level = Math.max(state.getLevel() - 1, 0);
+		state.used = 0;
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Return the scheduling state of the specified thread.
+	 *
+	 * @param thread the thread whose scheduling state to return.
+	 * @return the scheduling state of the specified thread.
+	 */
+	protected ThreadState getThreadState(KThread thread) {
+		if (thread.schedulingState == null)
+			thread.schedulingState = new ThreadState(thread);
+
+		return (ThreadState) thread.schedulingState;
+	}
+
+	/**
+	 * A <tt>ThreadQueue</tt> that keeps a FIFO list of waiting threads for
+	 * each level.
+	 */
+	protected class LevelQueue extends ThreadQueue {
+		LevelQueue() {
+			heads = new ThreadState[levels];
+			tails = new ThreadState[levels];
+			queueEpoch = epoch;
+		}
+
+		public void waitForAccess(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			thread.setWaitQueue(this);
+
+			if (queueEpoch != epoch)
+				reset();
+
+			ThreadState state = getThreadState(thread);
+			state.enqueueTime = numWaits++;
+			append(state.getLevel(), state);
+		}
+
+		public KThread nextThread() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			if (nonEmpty == 0)
+				return null;
+
+			if (queueEpoch != epoch)
+				reset();
+
+			int level = Integer.numberOfTrailingZeros(nonEmpty);
+			ThreadState state = heads[level];
+
+			heads[level] = state.next;
+			if (heads[level] == null) {
+				tails[level] = null;
+				nonEmpty &= ~(1 << level);
+			}
+			state.next = null;
+
+			return state.thread;
+		}
+
+		/**
+		 * Nothing to do: threads at the front of the queue are not given any
+		 * special treatment when they hold the resource.
+		 */
+		public void acquire(KThread thread) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+		}
+
+		public void print() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+
+			for (int level = 0; level < levels; level++) {
+				for (ThreadState state = heads[level]; state != null; state = state.next)
+					System.out.print(state.thread + "@" + level + " ");
+			}
+		}
+
+		private void append(int level, ThreadState state) {
+			if (tails[level] == null)
+				heads[level] = state;
+			else
+				tails[level].next = state;
+
+			tails[level] = state;
+			nonEmpty |= 1 << level;
+		}
+
+		/**
+		 * Move every waiting thread to level 0, keeping them in the order in
+		 * which they started waiting.
+		 */
+		private void reset() {
+			queueEpoch = epoch;
+
+			ThreadState head = null, tail = null;
+
+			while (nonEmpty != 0) {
+				// take the longest waiting thread from the front of any level
+				int first = -1;
+				for (int level = 0; level < levels; level++) {
+					if (heads[level] != null
+							&& (first == -1 || heads[level].enqueueTime < heads[first].enqueueTime))
+						first = level;
+				}
+
+				ThreadState state = heads[first];
+				heads[first] = state.next;
+				if (heads[first] == null) {
+					tails[first] = null;
+					nonEmpty &= ~(1 << first);
+				}
+
+				state.next = null;
+				if (tail == null)
+					head = state;
+				else
+					tail.next = state;
+				tail = state;
+			}
+
+			if (head != null) {
+				heads[0] = head;
+				tails[0] = tail;
+				nonEmpty = 1;
+			}
+		}
+
+		/** The first waiting thread at each level. */
+		private ThreadState[] heads;
+
+		/** The last waiting thread at each level. */
+		private ThreadState[] tails;
+
+		/** A bit for each level that has a waiting thread. */
+		private int nonEmpty = 0;
+
+		/** The reset this queue has last been brought up to date with. */
+		private int queueEpoch;
+	}
+
+	/**
+	 * The scheduling state of a thread: its level, how much of its allotment
+	 * at that level it has used, and its link in the queue it waits on.
+	 */
+	protected class ThreadState {
+		/**
+		 * Allocate a new <tt>ThreadState</tt> object and associate it with the
+		 * specified thread.
+		 *
+		 * @param thread the thread this state belongs to.
+		 */
+		public ThreadState(KThread thread) {
+			this.thread = thread;
+			this.stateEpoch = epoch;
+		}
+
+		/**
+		 * Return the level of the associated thread, first returning it to
+		 * level 0 if a reset has happened since it was last used.
+		 *
+		 * @return the level of the associated thread.
+		 */
+		public int getLevel() {
+			if (stateEpoch != epoch) {
+				stateEpoch = epoch;
+				level = 0;
+				used = 0;
+			}
+
+			return level;
+		}
+
+		/** The thread with which this object is associated. */
+		protected KThread thread;
+
+		/** The level of the associated thread. */
+		private int level = 0;
+
+		/** The timer interrupts charged to the thread at its level. */
+		private int used = 0;
+
+		/** The reset this state has last been brought up to date with. */
+		private int stateEpoch;
+
+		/** The order in which the thread started waiting on its queue. */
+		private long enqueueTime;
+
+		/** The next thread on the same level of the same queue. */
+		private ThreadState next = null;
+	}
+
+	/** The number of levels. */
+	private int levels;
+
+	/** The number of ticks between resets. */
+	private long resetInterval;
+
+	/** The time at which the next reset is due. */
+	private long nextReset;
+
+	/** The number of resets so far. */
+	private int epoch = 0;
+
+	/** A counter used to order waiting threads. */
+	private long numWaits = 0;
+}
@@ -2,10 +2,6 @@ package nachos.threads;
 
 import nachos.machine.*;
 
-import java.util.TreeSet;
-import java.util.HashSet;
-import java.util.Iterator;
-
 /**
  * A scheduler that chooses threads based on their priorities.
  * 
@@ -25,6 +21,14 @@ import java.util.Iterator;
  * <p>
  * A priority scheduler must partially solve the priority inversion problem; in
  * particular, priority must be donated through locks, and through joins.
+ * 
+ * <p>
+ * Each queue keeps its waiting threads in an indexed heap, ordered by
+ * effective priority and then by the time they started waiting, so that
+ * <tt>waitForAccess()</tt>, <tt>acquire()</tt> and <tt>nextThread()</tt> take
+ * logarithmic time in the number of waiters. Effective priorities are cached,
+ * and a change is pushed from a waiter to the owner of its queue (and on along
+ * the chain of owners) only if it changes the highest priority donated.
  */
 public class PriorityScheduler extends Scheduler {
 	/**
@@ -135,6 +139,7 @@ public class PriorityScheduler extends Scheduler {
 
 		public void waitForAccess(KThread thread) {
 			Lib.assertTrue(Machine.interrupt().disabled());
+			thread.setWaitQueue(this);
 			getThreadState(thread).waitForAccess(this);
 		}
 
@@ -145,8 +150,19 @@ public class PriorityScheduler extends Scheduler {
 
 		public KThread nextThread() {
 			Lib.assertTrue(Machine.interrupt().disabled());
-			// implement me
-			return null;
+
+			if (size == 0) {
+				setOwner(null);
+				return null;
+			}
+
+			ThreadState next = heap[0];
+			remove(next);
+			next.waitingOn = null;
+
+			next.acquire(this);
+
+			return next.thread;
 		}
 
 		/**
@@ -156,13 +172,143 @@ public class PriorityScheduler extends Scheduler {
 		 * @return the next thread that <tt>nextThread()</tt> would return.
 		 */
 		protected ThreadState pickNextThread() {
-			// implement me
-			return null;
+			return (size == 0) ? null : heap[0];
 		}
 
 		public void print() {
 			Lib.assertTrue(Machine.interrupt().disabled());
-			// implement me (if you want)
+
+			for (int i = 0; i < size; i++)
+				System.out.print(heap[i].thread + " ");
+		}
+
+		/**
+		 * Add a waiting thread to this queue.
+		 */
+		void add(ThreadState state) {
+			if (size == heap.length) {
+				ThreadState[] newHeap = new ThreadState[heap.length * 2];
+				System.arraycopy(heap, 0, newHeap, 0, size);
+				heap = newHeap;
+			}
+
+			siftUp(size++, state);
+			updateDonation();
+		}
+
+		/**
+		 * Remove a waiting thread from this queue.
+		 */
+		void remove(ThreadState state) {
+			int index = state.heapIndex;
+			Lib.assertTrue(index < size && heap[index] == state);
+
+			ThreadState last = heap[--size];
+			heap[size] = null;
+			state.heapIndex = -1;
+
+			if (last != state) {
+				siftUp(index, last);
+				siftDown(last.heapIndex, last);
+			}
+
+			updateDonation();
+		}
+
+		/**
+		 * Restore the heap order after the effective priority of a waiting
+		 * thread has changed.
+		 */
+		void update(ThreadState state) {
+			siftUp(state.heapIndex, state);
+			siftDown(state.heapIndex, state);
+
+			updateDonation();
+		}
+
+		/**
+		 * Make <i>owner</i> the thread holding the resource guarded by this
+		 * queue, moving this queue's donation to it from the previous owner.
+		 */
+		void setOwner(ThreadState owner) {
+			if (this.owner == owner)
+				return;
+
+			if (this.owner != null)
+				this.owner.removeDonation(donated);
+
+			this.owner = owner;
+
+			if (owner != null)
+				owner.addDonation(donated);
+		}
+
+		/**
+		 * Recompute the priority this queue donates to its owner, and pass it
+		 * on only if it changed.
+		 */
+		private void updateDonation() {
+			int newDonated = (!transferPriority || size == 0) ? noDonation
+					: heap[0].effectivePriority;
+
+			if (newDonated == donated)
+				return;
+
+			int oldDonated = donated;
+			donated = newDonated;
+
+			if (owner != null) {
+				owner.removeDonation(oldDonated);
+				owner.addDonation(newDonated);
+			}
+		}
+
+		/**
+		 * Return <tt>true</tt> if <i>a</i> should leave this queue before
+		 * <i>b</i>.
+		 */
+		private boolean before(ThreadState a, ThreadState b) {
+			if (a.effectivePriority != b.effectivePriority)
+				return a.effectivePriority > b.effectivePriority;
+
+			return a.waitTime < b.waitTime;
+		}
+
+		private void siftUp(int index, ThreadState state) {
+			while (index > 0) {
+				int parent = (index - 1) / 2;
+				if (!before(state, heap[parent]))
+					break;
+
+				place(index, heap[parent]);
+				index = parent;
+			}
+
+			place(index, state);
+		}
+
+		private void siftDown(int index, ThreadState state) {
+			while (true) {
+				int child = 2 * index + 1;
+				if (child >= size)
+					break;
+
+				if (child + 1 < size && before(heap[child + 1], heap[child]))
+					child++;
+
+				if (!before(heap[child], state))
+					break;
+
+				place(index, heap[child]);
+				index = child;
+			}
+
+			place(index, state);
+		}
+
+		private void place(int index, ThreadState state) {
+			heap[index] = state;
+			state.heapIndex = index;
 		}
 
 		/**
@@ -170,8 +316,25 @@ public class PriorityScheduler extends Scheduler {
 		 * threads to the owning thread.
 		 */
 		public boolean transferPriority;
+
+		/** The waiting threads, as a binary heap. */
+		private ThreadState[] heap = new ThreadState[8];
+
+		private int size = 0;
+
+		/** The thread holding the resource guarded by this queue. */
+		private ThreadState owner = null;
+
+		/** The priority this queue currently donates to its owner. */
+		private int donated = noDonation;
 	}
 
+	/** The donation of a queue with no waiters, or that does not donate. */
+	private static final int noDonation = -1;
+
+	/** The number of times a thread has started waiting on a queue. */
+	private long numWaits = 0;
+
 	/**
 	 * The scheduling state of a thread. This should include the thread's
 	 * priority, its effective priority, any objects it owns, and the queue it's
@@ -189,7 +352,8 @@ public class PriorityScheduler extends Scheduler {
 		public ThreadState(KThread thread) {
 			this.thread = thread;
 
-			setPriority(priorityDefault);
+			this.priority = priorityDefault;
+			this.effectivePriority = priorityDefault;
 		}
 
 		/**
@@ -207,8 +371,7 @@ public class PriorityScheduler extends Scheduler {
 		 * @return the effective priority of the associated thread.
 		 */
 		public int getEffectivePriority() {
-			// implement me
-			return priority;
+			return effectivePriority;
 		}
 
 		/**
@@ -222,7 +385,7 @@ public class PriorityScheduler extends Scheduler {
 
 			this.priority = priority;
 
-			// implement me
+			updateEffectivePriority();
 		}
 
 		/**
@@ -238,7 +401,11 @@ public class PriorityScheduler extends Scheduler {
 		 * @see nachos.threads.ThreadQueue#waitForAccess
 		 */
 		public void waitForAccess(PriorityQueue waitQueue) {
-			// implement me
+			Lib.assertTrue(waitingOn == null);
+
+			waitingOn = waitQueue;
+			waitTime = numWaits++;
+			waitQueue.add(this);
 		}
 
 		/**
@@ -252,7 +419,56 @@ public class PriorityScheduler extends Scheduler {
 		 * @see nachos.threads.ThreadQueue#nextThread
 		 */
 		public void acquire(PriorityQueue waitQueue) {
-			// implement me
+			Lib.assertTrue(waitingOn != waitQueue);
+
+			waitQueue.setOwner(this);
+		}
+
+		/**
+		 * Count a donation of <i>donation</i> from a queue this thread owns.
+		 */
+		void addDonation(int donation) {
+			if (donation == noDonation)
+				return;
+
+			donations[donation]++;
+			if (donation > effectivePriority)
+				updateEffectivePriority();
+		}
+
+		/**
+		 * Forget a donation of <i>donation</i> from a queue this thread owns.
+		 */
+		void removeDonation(int donation) {
+			if (donation == noDonation)
+				return;
+
+			donations[donation]--;
+			if (donation == effectivePriority)
+				updateEffectivePriority();
+		}
+
+		/**
+		 * Recompute the effective priority from the priority and the
+		 * donations, and if it changed, reposition this thread in the queue it
+		 * is waiting on, which passes the change on to that queue's owner.
+		 */
+		private void updateEffectivePriority() {
+			int newEffective = priority;
+			for (int p = priorityMaximum; p > priority; p--) {
+				if (donations[p] > 0) {
+					newEffective = p;
+					break;
+				}
+			}
+
+			if (newEffective == effectivePriority)
+				return;
+
+			effectivePriority = newEffective;
+
+			if (waitingOn != null)
+				waitingOn.update(this);
 		}
 
 		/** The thread with which this object is associated. */
@@ -260,5 +476,22 @@ public class PriorityScheduler extends Scheduler {
 
 		/** The priority of the associated thread. */
 		protected int priority;
+
+		/** The cached effective priority of the associated thread. */
+		protected int effectivePriority;
+
+		/**
+		 * The number of owned queues donating each priority to this thread.
+		 */
+		private int[] donations = new int[priorityMaximum + 1];
+
+		/** The queue this thread is waiting on, or <tt>null</tt>. */
+		private PriorityQueue waitingOn = null;
+
+		/** This thread's position in <tt>waitingOn</tt>'s heap. */
+		private int heapIndex = -1;
+
+		/** When this thread started waiting on <tt>waitingOn</tt>. */
+		private long waitTime;
 	}
 }
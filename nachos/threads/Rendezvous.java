@@ -2,23 +2,39 @@ package nachos.threads;
 
 import nachos.machine.*;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * A <i>Rendezvous</i> allows threads to synchronously exchange values.
+ *
+ * <p>
+ * Tags are hashed onto a fixed number of stripes, each with its own
+ * <tt>Lock</tt>, so threads using different tags rarely touch the same lock.
+ * Within a stripe, each tag in use has a <tt>Slot</tt> that counts the threads
+ * using it. When the last of them leaves, the slot is unlinked and kept on the
+ * stripe's free list for the next tag, so the table only holds the tags that
+ * are in use, and a repeated tag does not allocate.
  */
 public class Rendezvous {
 
-    private Map<Integer, ThreadExchangeValue> tagsToValue;
-    private Map<Integer, ConditionandLockPair> tagsToSyncPair;
+    /**
+     * Allocate a new Rendezvous with the default number of stripes.
+     */
+    public Rendezvous () {
+        this(defaultStripes);
+    }
 
     /**
      * Allocate a new Rendezvous.
+     *
+     * @param numStripes the number of lock stripes, which must be a power of
+     * two.
      */
-    public Rendezvous () {
-        tagsToValue = new HashMap<>();
-        tagsToSyncPair = new HashMap<>();
+    public Rendezvous (int numStripes) {
+        Lib.assertTrue(numStripes > 0 && (numStripes & (numStripes - 1)) == 0,
+                "number of stripes must be a power of two");
+
+        stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++)
+            stripes[i] = new Stripe();
     }
 
     /**
@@ -38,39 +54,199 @@ public class Rendezvous {
      * @param value the integer to exchange.
      */
     public int exchange (int tag, int value) {
+        return meet(tag, value, 2, null);
+    }
+
+    /**
+     * Synchronously exchange values among a group of threads.  Each
+     * thread blocks until <i>values.length</i> threads have arrived at
+     * <i>tag</i>, and then every thread in the group receives all of
+     * the group's values, in the order the threads arrived.
+     *
+     * A tag must not be used for groups of different sizes at the same
+     * time. <tt>exchange()</tt> uses groups of two.
+     *
+     * @param tag the synchronization tag.
+     * @param value the integer to contribute.
+     * @param values receives the values of the whole group. Its length
+     * is the size of the group.
+     * @return the position of this thread's value in <i>values</i>.
+     */
+    public int exchangeAll (int tag, int value, int[] values) {
+        Lib.assertTrue(values.length > 0);
+
+        return meet(tag, value, values.length, values);
+    }
 
-        if (!this.tagsToSyncPair.containsKey(tag)) {
-            Lock tagLock = new Lock();
-            Condition tagCondition = new Condition(tagLock);
-            this.tagsToSyncPair.put(tag, new ConditionandLockPair(tagLock, tagCondition));
+    /**
+     * Join the group gathering at <i>tag</i>. If <i>values</i> is
+     * <tt>null</tt>, return the value of the thread that arrived after
+     * this one (cyclically); otherwise fill in <i>values</i> and return
+     * this thread's position.
+     */
+    private int meet (int tag, int value, int parties, int[] values) {
+        Stripe stripe = stripes[hash(tag) & (stripes.length - 1)];
+
+        stripe.lock.acquire();
+        Slot slot = stripe.acquireSlot(tag);
+
+        // wait for the previous group at this tag to collect its values
+        while (slot.remaining > 0)
+            slot.drained.sleep();
+
+        if (slot.arrived == 0) {
+            slot.parties = parties;
+            if (slot.values.length < parties)
+                slot.values = new int[parties];
         }
-        this.tagsToSyncPair.get(tag).getLock().acquire();
+        Lib.assertTrue(slot.parties == parties,
+                "tag " + tag + " is in use by a group of " + slot.parties);
 
-        if (this.tagsToValue.containsKey(tag) && this.tagsToValue.get(tag).getIsSwitched()) {
-            this.tagsToSyncPair.get(tag).getCondition().sleep();
+        int index = slot.arrived++;
+        slot.values[index] = value;
+
+        if (slot.arrived == parties) {
+            slot.remaining = parties;
+            slot.full.wakeAll();
+        }
+        else {
+            while (slot.remaining == 0)
+                slot.full.sleep();
         }
 
-        if (!this.tagsToValue.containsKey(tag)) {
-            this.tagsToValue.put(tag, new ThreadExchangeValue(value, false));
-            this.tagsToSyncPair.get(tag).getCondition().sleep();
+        int result;
+        if (values == null) {
+            result = slot.values[(index + 1) % parties];
         }
         else {
-            int firstTagValue = this.tagsToValue.get(tag).getValue();
-            this.tagsToValue.replace(tag, new ThreadExchangeValue(value, true));
-            this.tagsToSyncPair.get(tag).getCondition().wake();
-            this.tagsToSyncPair.get(tag).getLock().release();
-            return firstTagValue;
+            System.arraycopy(slot.values, 0, values, 0, parties);
+            result = index;
+        }
+
+        if (--slot.remaining == 0) {
+            slot.arrived = 0;
+            slot.drained.wakeAll();
+        }
+
+        stripe.releaseSlot(slot);
+        stripe.lock.release();
+
+        return result;
+    }
+
+    private static int hash (int tag) {
+        int h = tag * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * A lock and the slots of the tags that hash to it.
+     */
+    private static class Stripe {
+        /**
+         * Return the slot for <i>tag</i>, taking a free one if the tag
+         * is not in use, and count the current thread as using it.
+         */
+        Slot acquireSlot (int tag) {
+            Slot slot;
+            for (slot = active; slot != null; slot = slot.next) {
+                if (slot.tag == tag)
+                    break;
+            }
+
+            if (slot == null) {
+                if (free != null) {
+                    slot = free;
+                    free = slot.next;
+                }
+                else {
+                    slot = new Slot(lock);
+                }
+
+                slot.tag = tag;
+                slot.next = active;
+                active = slot;
+            }
+
+            slot.refCount++;
+            return slot;
+        }
+
+        /**
+         * Stop counting the current thread as using <i>slot</i>, and
+         * move the slot to the free list if no thread is using it.
+         */
+        void releaseSlot (Slot slot) {
+            if (--slot.refCount > 0)
+                return;
+
+            Lib.assertTrue(slot.arrived == 0 && slot.remaining == 0);
+
+            if (active == slot) {
+                active = slot.next;
+            }
+            else {
+                Slot prev = active;
+                while (prev.next != slot)
+                    prev = prev.next;
+                prev.next = slot.next;
+            }
+
+            slot.next = free;
+            free = slot;
+        }
+
+        Lock lock = new Lock();
+
+        /** The slots of the tags in use. */
+        private Slot active = null;
+
+        /** Slots that are not in use. */
+        private Slot free = null;
+    }
+
+    /**
+     * The state of one tag: the group gathering there, and the threads
+     * using it.
+     */
+    private static class Slot {
+        Slot (Lock lock) {
+            full = new Condition2(lock);
+            drained = new Condition2(lock);
         }
 
-        int otherPairValue = tagsToValue.get(tag).getValue();
-        this.tagsToValue. remove(tag);
-        tagsToSyncPair.get(tag).getCondition().wakeAll();
-        this.tagsToSyncPair.get(tag).getLock().release();
+        int tag;
+
+        /** The next slot on the active or free list of the stripe. */
+        Slot next;
+
+        /** The number of threads using this slot. */
+        int refCount = 0;
+
+        /** The size of the group gathering at this tag. */
+        int parties;
+
+        /** The number of threads that have joined the group. */
+        int arrived = 0;
+
+        /**
+         * The number of threads of a complete group that have not yet
+         * collected their values, or 0 while the group is gathering.
+         */
+        int remaining = 0;
 
-        return otherPairValue;
+        int[] values = new int[2];
+
+        /** Signalled when the group is complete. */
+        Condition2 full;
+
+        /** Signalled when the group has collected its values. */
+        Condition2 drained;
     }
 
+    private static final int defaultStripes = 16;
 
+    private Stripe[] stripes;
 
 
     // Place Rendezvous test code inside of the Rendezvous class.
@@ -274,6 +450,36 @@ public class Rendezvous {
         t1.join(); t2.join(); t3.join(); t4.join();
     }
 
+    private static void rendezTest5() {
+        final Rendezvous r = new Rendezvous();
+        KThread[] threads = new KThread[3];
+
+        for (int i = 0; i < threads.length; i++) {
+            final int send = i + 1;
+
+            threads[i] = new KThread( new Runnable () {
+                public void run() {
+                    int tag = 0;
+                    int[] recv = new int[3];
+
+                    System.out.println ("Thread " + KThread.currentThread().getName() + " exchanging " + send);
+                    int index = r.exchangeAll (tag, send, recv);
+                    Lib.assertTrue (recv[index] == send, "Was expecting own value " + send + " at " + index);
+                    Lib.assertTrue (recv[0] + recv[1] + recv[2] == 6, "Was expecting values 1, 2 and 3");
+                    System.out.println ("Thread " + KThread.currentThread().getName() + " received "
+                            + recv[0] + " " + recv[1] + " " + recv[2]);
+                }
+            });
+            threads[i].setName("t" + (i + 1));
+        }
+
+        for (int i = 0; i < threads.length; i++)
+            threads[i].fork();
+        // assumes join is implemented correctly
+        for (int i = 0; i < threads.length; i++)
+            threads[i].join();
+    }
+
     // Invoke Rendezvous.selfTest() from ThreadedKernel.selfTest()
     public static void selfTest() {
         // place calls to your Rendezvous tests that you implement here
@@ -281,5 +487,6 @@ public class Rendezvous {
 //        rendezTest2();
 //        rendezTest3();
         rendezTest4();
+//        rendezTest5();
     }
 }
@@ -2,15 +2,17 @@ package nachos.threads;
 
 import nachos.machine.*;
 
-import java.util.LinkedList;
-import java.util.Iterator;
-
 /**
  * A round-robin scheduler tracks waiting threads in FIFO queues, implemented
  * with linked lists. When a thread begins waiting for access, it is appended to
  * the end of a list. The next thread to receive access is always the first
  * thread in the list. This causes access to be given on a first-come
  * first-serve basis.
+ *
+ * <p>
+ * The lists are intrusive: each thread carries its own link, so joining and
+ * leaving a queue (on every <tt>yield()</tt>, for the ready queue) does not
+ * allocate.
  */
 public class RoundRobinScheduler extends Scheduler {
 	/**
@@ -38,7 +40,14 @@ public class RoundRobinScheduler extends Scheduler {
 		public void waitForAccess(KThread thread) {
 			Lib.assertTrue(Machine.interrupt().disabled());
 
-			waitQueue.add(thread);
+			thread.setWaitQueue(this);
+
+			Lib.assertTrue(thread.nextWaiter == null && thread != last);
+			if (last == null)
+				first = thread;
+			else
+				last.nextWaiter = thread;
+			last = thread;
 		}
 
 		/**
@@ -50,10 +59,16 @@ public class RoundRobinScheduler extends Scheduler {
 		public KThread nextThread() {
 			Lib.assertTrue(Machine.interrupt().disabled());
 
-			if (waitQueue.isEmpty())
+			KThread thread = first;
+			if (thread == null)
 				return null;
 
-			return (KThread) waitQueue.removeFirst();
+			first = thread.nextWaiter;
+			if (first == null)
+				last = null;
+			thread.nextWaiter = null;
+
+			return thread;
 		}
 
 		/**
@@ -64,7 +79,7 @@ public class RoundRobinScheduler extends Scheduler {
 		public void acquire(KThread thread) {
 			Lib.assertTrue(Machine.interrupt().disabled());
 
-			Lib.assertTrue(waitQueue.isEmpty());
+			Lib.assertTrue(first == null);
 		}
 
 		/**
@@ -73,10 +88,14 @@ public class RoundRobinScheduler extends Scheduler {
 		public void print() {
 			Lib.assertTrue(Machine.interrupt().disabled());
 
-			for (Iterator i = waitQueue.iterator(); i.hasNext();)
-				System.out.print((KThread) i.next() + " ");
+			for (KThread thread = first; thread != null; thread = thread.nextWaiter)
+				System.out.print(thread + " ");
 		}
 
-		private LinkedList<KThread> waitQueue = new LinkedList<KThread>();
+		/** The thread at the front of the queue, or <tt>null</tt>. */
+		private KThread first = null;
+
+		/** The thread at the back of the queue, or <tt>null</tt>. */
+		private KThread last = null;
 	}
 }
@@ -151,4 +151,24 @@ public abstract class Scheduler {
 	public boolean decreasePriority() {
 		return false;
 	}
+
+	/**
+	 * Charge one timer quantum to the specified thread, which was running when
+	 * the timer interrupt arrived. Called by the timer interrupt handler with
+	 * interrupts disabled, just before it preempts the thread. Schedulers that
+	 * account for CPU usage can lower the thread's priority here.
+	 * 
+	 * @param thread the thread that used the quantum.
+	 */
+	public void chargeQuantum(KThread thread) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+	}
+
+	/**
+	 * Note that the current thread is about to block waiting for a device or a
+	 * timer, such as the console, the network, or the alarm. Schedulers that
+	 * favor interactive threads can raise the thread's priority here.
+	 */
+	public void waitingForIO() {
+	}
 }
@@ -28,7 +28,19 @@ public class Semaphore {
 	 * @param initialValue the initial value of this semaphore.
 	 */
 	public Semaphore(int initialValue) {
+		this(initialValue, null);
+	}
+
+	/**
+	 * Allocate a new named semaphore. The name identifies the semaphore in
+	 * contention reports.
+	 * 
+	 * @param initialValue the initial value of this semaphore.
+	 * @param name the name of this semaphore.
+	 */
+	public Semaphore(int initialValue, String name) {
 		value = initialValue;
+		profile = ContentionProfile.create("Semaphore", name);
 	}
 
 	/**
@@ -36,8 +48,10 @@ public class Semaphore {
 	 */
 	public void P() {
 		boolean intStatus = Machine.interrupt().disable();
+		long startTime = (profile != null) ? Machine.timer().getTime() : 0;
+		boolean contended = (value == 0);
 
-		if (value == 0) {
+		if (contended) {
 			waitQueue.waitForAccess(KThread.currentThread());
 			KThread.sleep();
 		}
@@ -45,6 +59,9 @@ public class Semaphore {
 			value--;
 		}
 
+		if (profile != null)
+			profile.acquired(startTime, contended);
+
 		Machine.interrupt().restore(intStatus);
 	}
 
@@ -101,6 +118,8 @@ public class Semaphore {
 
 	private int value;
 
+	private ContentionProfile profile;
+
 	private ThreadQueue waitQueue = ThreadedKernel.scheduler
 			.newThreadQueue(false);
 }
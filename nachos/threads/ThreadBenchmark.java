@@ -0,0 +1,221 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * Measures the cost of the thread operations the kernel is built on: yielding
+ * between threads, forking and joining a thread, handing a <tt>Semaphore</tt>
+ * back and forth, and passing a contended <tt>Lock</tt> around. Each benchmark
+ * reports both the host time and the simulated time per operation, so that TCB
+ * backends and schedulers can be compared on the same workload.
+ *
+ * <p>
+ * The benchmarks are selected by the <tt>Kernel.benchmark</tt> configuration
+ * key, a comma-separated list drawn from <tt>yield</tt>, <tt>forkjoin</tt>,
+ * <tt>semaphore</tt> and <tt>lock</tt>, or <tt>all</tt>.
+ * <tt>Kernel.benchmark.iterations</tt> sets the number of iterations each
+ * thread performs (default 10000) and <tt>Kernel.benchmark.threads</tt> sets
+ * the number of threads used by the yield and lock benchmarks (default 2).
+ */
+public class ThreadBenchmark {
+	/**
+	 * Allocate a new benchmark run.
+	 *
+	 * @param iterations the number of iterations each thread performs.
+	 * @param numThreads the number of competing threads.
+	 */
+	public ThreadBenchmark(int iterations, int numThreads) {
+		Lib.assertTrue(iterations > 0 && numThreads > 0);
+
+		this.iterations = iterations;
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Run the benchmarks named by the <tt>Kernel.benchmark</tt> configuration
+	 * key, if any.
+	 */
+	public static void runConfigured() {
+		String names = Config.getString("Kernel.benchmark");
+		if (names == null)
+			return;
+
+		ThreadBenchmark benchmark = new ThreadBenchmark(Config.getInteger(
+				"Kernel.benchmark.iterations", 10000), Config.getInteger(
+				"Kernel.benchmark.threads", 2));
+
+		System.out.println();
+		System.out.println("Thread benchmarks (" + benchmark.iterations
+				+ " iterations, " + benchmark.numThreads + " threads):");
+
+		String[] list = names.split(",");
+		for (int i = 0; i < list.length; i++)
+			benchmark.run(list[i].trim());
+	}
+
+	/**
+	 * Run a single benchmark and print its results.
+	 *
+	 * @param name the benchmark to run, or <tt>all</tt>.
+	 */
+	public void run(String name) {
+		if (name.equals("all")) {
+			run("yield");
+			run("forkjoin");
+			run("semaphore");
+			run("lock");
+		}
+		else if (name.equals("yield")) {
+			start();
+			long ops = yieldPingPong();
+			report(name, ops);
+		}
+		else if (name.equals("forkjoin")) {
+			start();
+			long ops = forkJoin();
+			report(name, ops);
+		}
+		else if (name.equals("semaphore")) {
+			start();
+			long ops = semaphoreHandoff();
+			report(name, ops);
+		}
+		else if (name.equals("lock")) {
+			start();
+			long ops = lockContention();
+			report(name, ops);
+		}
+		else {
+			Lib.assertNotReached("unknown benchmark: " + name);
+		}
+	}
+
+	/**
+	 * <tt>numThreads</tt> threads each yield <tt>iterations</tt> times.
+	 *
+	 * @return the number of yields performed.
+	 */
+	private long yieldPingPong() {
+		KThread[] threads = new KThread[numThreads];
+
+		for (int i = 0; i < numThreads; i++) {
+			threads[i] = new KThread(new Runnable() {
+				public void run() {
+					for (int j = 0; j < iterations; j++)
+						KThread.yield();
+				}
+			}).setName("yield benchmark " + i);
+			threads[i].fork();
+		}
+
+		joinAll(threads);
+
+		return (long) numThreads * iterations;
+	}
+
+	/**
+	 * Fork an empty thread and join it, <tt>iterations</tt> times.
+	 *
+	 * @return the number of threads forked and joined.
+	 */
+	private long forkJoin() {
+		Runnable empty = new Runnable() {
+			public void run() {
+			}
+		};
+
+		for (int i = 0; i < iterations; i++) {
+			KThread thread = new KThread(empty).setName("forkjoin benchmark");
+			thread.fork();
+			thread.join();
+		}
+
+		return iterations;
+	}
+
+	/**
+	 * Pass control back and forth between two threads through a pair of
+	 * semaphores, <tt>iterations</tt> times each way.
+	 *
+	 * @return the number of <tt>V()</tt> to <tt>P()</tt> handoffs.
+	 */
+	private long semaphoreHandoff() {
+		final Semaphore ping = new Semaphore(0);
+		final Semaphore pong = new Semaphore(0);
+
+		KThread thread = new KThread(new Runnable() {
+			public void run() {
+				for (int i = 0; i < iterations; i++) {
+					ping.P();
+					pong.V();
+				}
+			}
+		}).setName("semaphore benchmark");
+		thread.fork();
+
+		for (int i = 0; i < iterations; i++) {
+			ping.V();
+			pong.P();
+		}
+
+		thread.join();
+
+		return 2L * iterations;
+	}
+
+	/**
+	 * <tt>numThreads</tt> threads each acquire a shared lock
+	 * <tt>iterations</tt> times, yielding while holding it so that the other
+	 * threads block on it.
+	 *
+	 * @return the number of lock acquisitions.
+	 */
+	private long lockContention() {
+		final Lock lock = new Lock();
+		KThread[] threads = new KThread[numThreads];
+
+		for (int i = 0; i < numThreads; i++) {
+			threads[i] = new KThread(new Runnable() {
+				public void run() {
+					for (int j = 0; j < iterations; j++) {
+						lock.acquire();
+						KThread.yield();
+						lock.release();
+					}
+				}
+			}).setName("lock benchmark " + i);
+			threads[i].fork();
+		}
+
+		joinAll(threads);
+
+		return (long) numThreads * iterations;
+	}
+
+	private void joinAll(KThread[] threads) {
+		for (int i = 0; i < threads.length; i++)
+			threads[i].join();
+	}
+
+	private void start() {
+		startTicks = Machine.timer().getTime();
+		startNanos = System.nanoTime();
+	}
+
+	private void report(String name, long ops) {
+		long nanos = System.nanoTime() - startNanos;
+		long ticks = Machine.timer().getTime() - startTicks;
+
+		System.out.println("Benchmark " + name + ": " + ops + " ops, "
+				+ (nanos / ops) + " ns/op, " + (ticks / ops) + "."
+				+ ((ticks * 10 / ops) % 10) + " ticks/op");
+	}
+
+	private int iterations;
+
+	private int numThreads;
+
+	private long startNanos;
+
+	private long startTicks;
+}
@@ -94,4 +94,17 @@ public abstract class ThreadQueue {
 	 * Print out all the threads waiting for access, in no particular order.
 	 */
 	public abstract void print();
+
+	/**
+	 * Return the total simulated time that threads have spent blocked waiting
+	 * for access to this queue.
+	 * 
+	 * @return the blocked ticks charged to this queue.
+	 */
+	public long getBlockedTicks() {
+		return blockedTicks;
+	}
+
+	/** Updated by <tt>KThread</tt> when a thread blocked on this queue wakes. */
+	long blockedTicks = 0;
 }
@@ -0,0 +1,69 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A snapshot of the scheduling statistics of one <tt>KThread</tt>: the
+ * simulated time it has spent running, ready and blocked, how often it was
+ * switched onto the CPU, and how many times it yielded on its own or was
+ * preempted by the timer.
+ *
+ * @see nachos.threads.KThread#getThreadStats()
+ * @see nachos.threads.KThread#snapshotThreadStats()
+ */
+public final class ThreadStats {
+	/**
+	 * Allocate a new, empty statistics snapshot.
+	 */
+	public ThreadStats() {
+	}
+
+	/**
+	 * Print out the statistics in this snapshot.
+	 */
+	public void print() {
+		System.out.println("Thread " + name + " (#" + id + "): ticks running "
+				+ runningTicks + ", ready " + readyTicks + ", blocked "
+				+ blockedTicks);
+		System.out.println("  Switches: context " + contextSwitches
+				+ ", voluntary yields " + voluntaryYields
+				+ ", preemptive yields " + preemptiveYields);
+	}
+
+	/**
+	 * Print the statistics of every live thread, as returned by
+	 * <tt>KThread.snapshotThreadStats()</tt>.
+	 */
+	public static void printAll() {
+		ThreadStats[] stats = KThread.snapshotThreadStats();
+
+		System.out.println("Thread statistics at time "
+				+ Machine.timer().getTime() + ":");
+		for (int i = 0; i < stats.length; i++)
+			stats[i].print();
+	}
+
+	/** The name of the thread. */
+	public String name;
+
+	/** The unique identifier of the thread. */
+	public int id;
+
+	/** The simulated time the thread has spent running. */
+	public long runningTicks = 0;
+
+	/** The simulated time the thread has spent on the ready queue. */
+	public long readyTicks = 0;
+
+	/** The simulated time the thread has spent blocked. */
+	public long blockedTicks = 0;
+
+	/** The number of times the thread was switched onto the CPU. */
+	public int contextSwitches = 0;
+
+	/** The number of times the thread called <tt>KThread.yield()</tt>. */
+	public int voluntaryYields = 0;
+
+	/** The number of times the timer preempted the thread. */
+	public int preemptiveYields = 0;
+}
@@ -41,9 +41,9 @@ public class ThreadedKernel extends Kernel {
 
 	/**
 	 * Test this kernel. Test the <tt>KThread</tt>, <tt>Semaphore</tt>,
-	 * <tt>SynchList</tt>, and <tt>ElevatorBank</tt> classes. Note that the
-	 * autograder never calls this method, so it is safe to put additional tests
-	 * here.
+	 * <tt>SynchList</tt>, and <tt>ElevatorBank</tt> classes, then run any
+	 * benchmarks named by <tt>Kernel.benchmark</tt>. Note that the autograder
+	 * never calls this method, so it is safe to put additional tests here.
 	 */
 	public void selfTest() {
 		KThread.selfTest();
@@ -53,6 +53,8 @@ public class ThreadedKernel extends Kernel {
 			ElevatorBank.selfTest();
 		}
 
+		ThreadBenchmark.runConfigured();
+
 		System.out.println();
 //		Condition.selfTest();
 //		Condition2.selfTest();
@@ -70,6 +72,9 @@ public class ThreadedKernel extends Kernel {
 	 * Terminate this kernel. Never returns.
 	 */
 	public void terminate() {
+		if (Config.getInteger("ThreadedKernel.threadStatsInterval", 0) > 0)
+			ThreadStats.printAll();
+
 		Machine.halt();
 	}
 
@@ -46,6 +46,10 @@ public class SynchConsole {
 		readLock.acquire();
 
 		if (block || charAvailable) {
+			// only a thread that is about to block counts as waiting for I/O
+			if (!charAvailable)
+				ThreadedKernel.scheduler.waitingForIO();
+
 			charAvailable = false;
 			readWait.P();
 
@@ -83,6 +87,7 @@ public class SynchConsole {
 	public void writeByte(int value) {
 		writeLock.acquire();
 		console.writeByte(value);
+		ThreadedKernel.scheduler.waitingForIO();
 		writeWait.P();
 		writeLock.release();
 	}
@@ -104,9 +109,9 @@ public class SynchConsole {
 
 	private SerialConsole console;
 
-	private Lock readLock = new Lock();
+	private Lock readLock = new Lock("SynchConsole.readLock");
 
-	private Lock writeLock = new Lock();
+	private Lock writeLock = new Lock("SynchConsole.writeLock");
 
 	private Semaphore readWait = new Semaphore(0);
 
@@ -24,6 +24,14 @@ public class UserKernel extends ThreadedKernel {
 
 		console = new SynchConsole(Machine.console());
 
+		// every page starts out free, lowest page number on top
+		int numPhysPages = Machine.processor().getNumPhysPages();
+		freeList = new int[numPhysPages];
+		for (int i = 0; i < numPhysPages; i++)
+			freeList[i] = numPhysPages - 1 - i;
+		numFreePages = numPhysPages;
+		pageLock = new Lock("UserKernel.pageLock");
+
 		Machine.processor().setExceptionHandler(new Runnable() {
 			public void run() {
 				exceptionHandler();
@@ -62,6 +70,53 @@ public class UserKernel extends ThreadedKernel {
 		return ((UThread) KThread.currentThread()).process;
 	}
 
+	/**
+	 * Allocate physical pages from the free-page pool. Either all of the pages
+	 * are allocated or none are.
+	 * 
+	 * @param ppns the array to store the allocated page numbers in.
+	 * @param count the number of pages to allocate.
+	 * @return <tt>true</tt> if the pages were allocated, or <tt>false</tt> if
+	 * fewer than <i>count</i> pages are free.
+	 */
+	public static boolean allocatePages(int[] ppns, int count) {
+		Lib.assertTrue(count >= 0 && count <= ppns.length);
+
+		pageLock.acquire();
+
+		if (numFreePages < count) {
+			pageLock.release();
+			return false;
+		}
+
+		for (int i = 0; i < count; i++)
+			ppns[i] = freeList[--numFreePages];
+
+		pageLock.release();
+
+		return true;
+	}
+
+	/**
+	 * Return physical pages to the free-page pool.
+	 * 
+	 * @param ppns the page numbers to free.
+	 * @param count the number of pages to free.
+	 */
+	public static void freePages(int[] ppns, int count) {
+		Lib.assertTrue(count >= 0 && count <= ppns.length);
+
+		pageLock.acquire();
+
+		// push in reverse, so the pages are handed out again in the same order
+		for (int i = count - 1; i >= 0; i--) {
+			Lib.assertTrue(numFreePages < freeList.length);
+			freeList[numFreePages++] = ppns[i];
+		}
+
+		pageLock.release();
+	}
+
 	/**
 	 * The exception handler. This handler is called by the processor whenever a
 	 * user instruction causes a processor exception.
@@ -122,6 +177,14 @@ public class UserKernel extends ThreadedKernel {
 	/** Globally accessible reference to the synchronized console. */
 	public static SynchConsole console;
 
+	/** The free physical pages, as a stack with the top at the end. */
+	private static int[] freeList;
+
+	private static int numFreePages;
+
+	/** Protects the free-page pool. */
+	private static Lock pageLock;
+
 	// dummy variables to make javac smarter
 	private static Coff dummy1 = null;
 }
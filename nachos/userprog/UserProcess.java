@@ -6,6 +6,8 @@ import nachos.userprog.*;
 import nachos.vm.*;
 
 import java.io.EOFException;
+import java.util.Arrays;
+import java.util.HashMap;
 
 /**
  * Encapsulates the state of a user process that is not contained in its user
@@ -24,10 +26,14 @@ public class UserProcess {
 	 * Allocate a new process.
 	 */
 	public UserProcess() {
-		int numPhysPages = Machine.processor().getNumPhysPages();
-		pageTable = new TranslationEntry[numPhysPages];
-		for (int i = 0; i < numPhysPages; i++)
-			pageTable[i] = new TranslationEntry(i, i, true, false, false, false);
+		processLock.acquire();
+		processID = nextProcessID++;
+		processLock.release();
+
+		if (UserKernel.console != null) {
+			fileTable[0] = UserKernel.console.openForReading();
+			fileTable[1] = UserKernel.console.openForWriting();
+		}
 	}
 
 	/**
@@ -66,6 +72,10 @@ public class UserProcess {
 		if (!load(name, args))
 			return false;
 
+		processLock.acquire();
+		numRunning++;
+		processLock.release();
+
 		thread = new UThread(this);
 		thread.setName(name).fork();
 
@@ -145,16 +155,7 @@ public class UserProcess {
 		Lib.assertTrue(offset >= 0 && length >= 0
 				&& offset + length <= data.length);
 
-		byte[] memory = Machine.processor().getMemory();
-
-		// for now, just assume that virtual addresses equal physical addresses
-		if (vaddr < 0 || vaddr >= memory.length)
-			return 0;
-
-		int amount = Math.min(length, memory.length - vaddr);
-		System.arraycopy(memory, vaddr, data, offset, amount);
-
-		return amount;
+		return copyVirtualMemory(vaddr, data, offset, length, false);
 	}
 
 	/**
@@ -187,14 +188,242 @@ public class UserProcess {
 		Lib.assertTrue(offset >= 0 && length >= 0
 				&& offset + length <= data.length);
 
+		return copyVirtualMemory(vaddr, data, offset, length, true);
+	}
+
+	/**
+	 * Copy between this process's virtual memory and an array, a page at a
+	 * time. Each page is translated once, and virtual pages that are also
+	 * contiguous in physical memory are copied together with a single
+	 * <tt>System.arraycopy()</tt>. Stops at the first page that cannot be
+	 * translated.
+	 * 
+	 * @param vaddr the first byte of virtual memory to transfer.
+	 * @param data the array to transfer to or from.
+	 * @param offset the first byte of the array to transfer.
+	 * @param length the number of bytes to transfer.
+	 * @param write <tt>true</tt> to copy from the array into virtual memory,
+	 * <tt>false</tt> to copy from virtual memory into the array.
+	 * @return the number of bytes successfully transferred.
+	 */
+	private int copyVirtualMemory(int vaddr, byte[] data, int offset,
+			int length, boolean write) {
+		if (vaddr < 0)
+			return 0;
+
 		byte[] memory = Machine.processor().getMemory();
 
-		// for now, just assume that virtual addresses equal physical addresses
-		if (vaddr < 0 || vaddr >= memory.length)
+		int amount = 0;
+		while (amount < length) {
+			int vpn = Processor.pageFromAddress(vaddr + amount);
+			TranslationEntry entry = translate(vpn, write);
+			if (entry == null)
+				break;
+
+			// extend the run while the next page follows in physical memory
+			int paddr = entry.ppn * pageSize
+					+ Processor.offsetFromAddress(vaddr + amount);
+			int run = Math.min(length - amount, (entry.ppn + 1) * pageSize
+					- paddr);
+			while (run < length - amount) {
+				TranslationEntry next = translate(++vpn, write);
+				if (next == null || next.ppn != entry.ppn + 1)
+					break;
+
+				entry = next;
+				run = Math.min(length - amount, run + pageSize);
+			}
+
+			if (write)
+				System.arraycopy(data, offset + amount, memory, paddr, run);
+			else
+				System.arraycopy(memory, paddr, data, offset + amount, run);
+
+			amount += run;
+		}
+
+		return amount;
+	}
+
+	/**
+	 * Translate a virtual page of this process for an access by the kernel,
+	 * and mark the page used, and dirty if the access is a write.
+	 * 
+	 * @param vpn the virtual page to translate.
+	 * @param write <tt>true</tt> if the page is about to be written.
+	 * @return the page table entry for the page, or <tt>null</tt> if the page
+	 * is not mapped, or is read-only and <i>write</i> is <tt>true</tt>.
+	 */
+	protected TranslationEntry translate(int vpn, boolean write) {
+		if (vpn < 0 || vpn >= pageTable.length)
+			return null;
+
+		TranslationEntry entry = pageTable[vpn];
+		if (entry == null || !entry.valid || (write && entry.readOnly)
+				|| entry.ppn < 0
+				|| entry.ppn >= Machine.processor().getNumPhysPages())
+			return null;
+
+		entry.used = true;
+		if (write)
+			entry.dirty = true;
+
+		return entry;
+	}
+
+	/**
+	 * Read from a file, starting at its file pointer, straight into this
+	 * process's virtual memory. The pages behind the buffer are handed to the
+	 * file as a scatter list, so the bytes are copied once, from the file into
+	 * main memory.
+	 * 
+	 * @param file the file to read from.
+	 * @param vaddr the first byte of virtual memory to read into.
+	 * @param length the number of bytes to read.
+	 * @return the number of bytes read, or -1 if the file could not be read or
+	 * the first byte of the buffer is not writable.
+	 */
+	protected int readFromFile(OpenFile file, int vaddr, int length) {
+		ioVector[0] = vaddr;
+		ioVector[1] = length;
+		return transferFile(file, 1, true);
+	}
+
+	/**
+	 * Write to a file, starting at its file pointer, straight from this
+	 * process's virtual memory, handing the pages behind the buffer to the
+	 * file as a gather list.
+	 * 
+	 * @param file the file to write to.
+	 * @param vaddr the first byte of virtual memory to write from.
+	 * @param length the number of bytes to write.
+	 * @return the number of bytes written, or -1 if the file could not be
+	 * written or the first byte of the buffer is not mapped.
+	 */
+	protected int writeToFile(OpenFile file, int vaddr, int length) {
+		ioVector[0] = vaddr;
+		ioVector[1] = length;
+		return transferFile(file, 1, false);
+	}
+
+	/**
+	 * Transfer between a file and the <i>count</i> buffers described by
+	 * <tt>ioVector</tt>, in order. The pages behind all of the buffers go into
+	 * one scatter list, which is handed to the file whenever it fills up.
+	 * Stops at the first page that cannot be translated, or when the file
+	 * transfers fewer bytes than asked.
+	 * 
+	 * @return the number of bytes transferred, or -1 if the file failed or
+	 * the first byte is not mapped.
+	 */
+	private int transferFile(OpenFile file, int count, boolean toMemory) {
+		int total = 0, mapped = 0;
+		boolean fault = false;
+
+		ioSegments = 0;
+		for (int i = 0; i < count && !fault; i++) {
+			int vaddr = ioVector[2 * i], length = ioVector[2 * i + 1];
+
+			int done = 0;
+			while (done < length) {
+				int amount = mapVirtualMemory(vaddr + done, length - done,
+						toMemory);
+				done += amount;
+				mapped += amount;
+				if (done == length)
+					break;
+
+				if (translate(Processor.pageFromAddress(vaddr + done),
+						toMemory) == null) {
+					fault = true;
+					break;
+				}
+
+				// the scatter list is full: transfer it and start another
+				int moved = flushFile(file, toMemory);
+				if (moved == -1)
+					return (total == 0) ? -1 : total;
+
+				total += moved;
+				if (moved < mapped)
+					return total;
+
+				mapped = 0;
+			}
+		}
+
+		int moved = flushFile(file, toMemory);
+		if (moved == -1)
+			return (total == 0) ? -1 : total;
+
+		total += moved;
+		if (fault && total == 0)
+			return -1;
+
+		return total;
+	}
+
+	/**
+	 * Hand the scatter list to the file, and empty it.
+	 */
+	private int flushFile(OpenFile file, boolean toMemory) {
+		if (ioSegments == 0)
 			return 0;
 
-		int amount = Math.min(length, memory.length - vaddr);
-		System.arraycopy(data, offset, memory, vaddr, amount);
+		byte[] memory = Machine.processor().getMemory();
+
+		int amount;
+		if (toMemory)
+			amount = file.readScatter(memory, ioOffsets, ioLengths, ioSegments);
+		else
+			amount = file.writeGather(memory, ioOffsets, ioLengths, ioSegments);
+
+		ioSegments = 0;
+		return amount;
+	}
+
+	/**
+	 * Add the main memory behind part of this process's virtual memory to the
+	 * scatter list in <tt>ioOffsets</tt> and <tt>ioLengths</tt>, merging
+	 * pages that are contiguous in physical memory. Stops at the first page
+	 * that cannot be translated or when the list is full.
+	 * 
+	 * @param vaddr the first byte of virtual memory to map.
+	 * @param length the number of bytes to map.
+	 * @param write <tt>true</tt> if the memory is about to be written.
+	 * @return the number of bytes added to the list.
+	 */
+	private int mapVirtualMemory(int vaddr, int length, boolean write) {
+		if (vaddr < 0)
+			return 0;
+
+		int amount = 0;
+		while (amount < length) {
+			TranslationEntry entry = translate(
+					Processor.pageFromAddress(vaddr + amount), write);
+			if (entry == null)
+				break;
+
+			int paddr = entry.ppn * pageSize
+					+ Processor.offsetFromAddress(vaddr + amount);
+			int run = Math.min(length - amount, (entry.ppn + 1) * pageSize
+					- paddr);
+
+			if (ioSegments > 0
+					&& ioOffsets[ioSegments - 1] + ioLengths[ioSegments - 1] == paddr) {
+				ioLengths[ioSegments - 1] += run;
+			}
+			else {
+				if (ioSegments == ioOffsets.length)
+					break;
+
+				ioOffsets[ioSegments] = paddr;
+				ioLengths[ioSegments] = run;
+				ioSegments++;
+			}
+
+			amount += run;
+		}
 
 		return amount;
 	}
@@ -263,6 +492,7 @@ public class UserProcess {
 		// and finally reserve 1 page for arguments
 		numPages++;
 
+		pageTable = new TranslationEntry[numPages];
 		if (!loadSections())
 			return false;
 
@@ -294,12 +524,17 @@ public class UserProcess {
 	 * @return <tt>true</tt> if the sections were successfully loaded.
 	 */
 	protected boolean loadSections() {
-		if (numPages > Machine.processor().getNumPhysPages()) {
+		int[] ppns = new int[numPages];
+		if (!UserKernel.allocatePages(ppns, numPages)) {
 			coff.close();
 			Lib.debug(dbgProcess, "\tinsufficient physical memory");
 			return false;
 		}
 
+		for (int vpn = 0; vpn < numPages; vpn++)
+			pageTable[vpn] = new TranslationEntry(vpn, ppns[vpn], true, false,
+					false, false);
+
 		// load sections
 		for (int s = 0; s < coff.getNumSections(); s++) {
 			CoffSection section = coff.getSection(s);
@@ -310,11 +545,17 @@ public class UserProcess {
 			for (int i = 0; i < section.getLength(); i++) {
 				int vpn = section.getFirstVPN() + i;
 
-				// for now, just assume virtual addresses=physical addresses
-				section.loadPage(i, vpn);
+				pageTable[vpn].readOnly = section.isReadOnly();
+				section.loadPage(i, ppns[vpn]);
 			}
 		}
 
+		// the stack and argument pages may still hold an old process's data
+		byte[] memory = Machine.processor().getMemory();
+		for (int vpn = numPages - stackPages - 1; vpn < numPages; vpn++)
+			Arrays.fill(memory, ppns[vpn] * pageSize, (ppns[vpn] + 1)
+					* pageSize, (byte) 0);
+
 		return true;
 	}
 
@@ -322,6 +563,13 @@ public class UserProcess {
 	 * Release any resources allocated by <tt>loadSections()</tt>.
 	 */
 	protected void unloadSections() {
+		int[] ppns = new int[pageTable.length];
+		for (int vpn = 0; vpn < pageTable.length; vpn++) {
+			ppns[vpn] = pageTable[vpn].ppn;
+			pageTable[vpn].valid = false;
+		}
+
+		UserKernel.freePages(ppns, ppns.length);
 	}
 
 	/**
@@ -351,6 +599,9 @@ public class UserProcess {
 	 * Handle the halt() system call.
 	 */
 	private int handleHalt() {
+		// only the root process may halt the machine
+		if (processID != 0)
+			return -1;
 
 		Machine.halt();
 
@@ -368,16 +619,275 @@ public class UserProcess {
 		// can grade your implementation.
 
 		Lib.debug(dbgProcess, "UserProcess.handleExit (" + status + ")");
-		// for now, unconditionally terminate with just one process
-		Kernel.kernel.terminate();
+
+		terminate(status, true);
+
+		Lib.assertNotReached();
+		return 0;
+	}
+
+	/**
+	 * Handle the exec() system call.
+	 */
+	private int handleExec(int nameAddr, int argc, int argvAddr) {
+		String name = readVirtualMemoryString(nameAddr, maxNameLength);
+		// load() rejects more arguments than fit in a page anyway
+		if (name == null || !name.endsWith(".coff") || argc < 0
+				|| argc > pageSize / 4)
+			return -1;
+
+		String[] args = new String[argc];
+		byte[] pointer = new byte[4];
+		for (int i = 0; i < argc; i++) {
+			if (readVirtualMemory(argvAddr + i * 4, pointer) != 4)
+				return -1;
+
+			args[i] = readVirtualMemoryString(Lib.bytesToInt(pointer, 0),
+					maxNameLength);
+			if (args[i] == null)
+				return -1;
+		}
+
+		UserProcess child = newUserProcess();
+		if (!child.execute(name, args)) {
+			child.closeFiles();
+			return -1;
+		}
+
+		children.put(child.processID, child);
+
+		return child.processID;
+	}
+
+	/**
+	 * Handle the join() system call. A child can only be joined once.
+	 */
+	private int handleJoin(int processID, int statusAddr) {
+		UserProcess child = children.remove(processID);
+		if (child == null)
+			return -1;
+
+		child.thread.join();
+
+		if (!child.exitedNormally)
+			return 0;
+
+		if (statusAddr != 0) {
+			byte[] status = Lib.bytesFromInt(child.exitStatus);
+			if (writeVirtualMemory(statusAddr, status) != status.length)
+				return -1;
+		}
+
+		return 1;
+	}
+
+	/**
+	 * End this process. Close its files, return its pages to the free-page
+	 * pool, and leave its exit status for its parent. If this is the last
+	 * running process, terminate the kernel. Never returns.
+	 * 
+	 * @param status the exit status.
+	 * @param normal <tt>false</tt> if the process is being killed because of
+	 * an unhandled exception.
+	 */
+	private void terminate(int status, boolean normal) {
+		closeFiles();
+		unloadSections();
+		coff.close();
+
+		// orphaned children need no record of their status
+		children.clear();
+
+		exitStatus = status;
+		exitedNormally = normal;
+
+		processLock.acquire();
+		boolean last = (--numRunning == 0);
+		processLock.release();
+
+		if (last)
+			Kernel.kernel.terminate();
+
+		KThread.finish();
+	}
+
+	/**
+	 * Handle the creat() system call.
+	 */
+	private int handleCreate(int nameAddr) {
+		return openFile(nameAddr, true);
+	}
+
+	/**
+	 * Handle the open() system call.
+	 */
+	private int handleOpen(int nameAddr) {
+		return openFile(nameAddr, false);
+	}
+
+	/**
+	 * Open the file whose name is at <i>nameAddr</i>, creating it if
+	 * <i>create</i> is set, and give it the lowest free file descriptor.
+	 * 
+	 * @return the new file descriptor, or -1 on failure.
+	 */
+	private int openFile(int nameAddr, boolean create) {
+		String name = readVirtualMemoryString(nameAddr, maxNameLength);
+		if (name == null)
+			return -1;
+
+		int fd = 0;
+		while (fd < fileTable.length && fileTable[fd] != null)
+			fd++;
+		if (fd == fileTable.length)
+			return -1;
+
+		OpenFile file = ThreadedKernel.fileSystem.open(name, create);
+		if (file == null)
+			return -1;
+
+		fileTable[fd] = file;
+		return fd;
+	}
+
+	/**
+	 * Handle the read() system call. The bytes go straight from the file into
+	 * the pages behind the buffer; see <tt>readFromFile()</tt>.
+	 */
+	private int handleRead(int fd, int vaddr, int count) {
+		OpenFile file = getFile(fd);
+		if (file == null || count < 0)
+			return -1;
+
+		return readFromFile(file, vaddr, count);
+	}
+
+	/**
+	 * Handle the write() system call. Returns -1 unless every byte was
+	 * written.
+	 */
+	private int handleWrite(int fd, int vaddr, int count) {
+		OpenFile file = getFile(fd);
+		if (file == null || count < 0)
+			return -1;
+
+		int amount = writeToFile(file, vaddr, count);
+		return (amount == count) ? amount : -1;
+	}
+
+	/**
+	 * Handle the readv() system call.
+	 */
+	private int handleReadv(int fd, int iovAddr, int iovCount) {
+		OpenFile file = getFile(fd);
+		if (file == null || readIovecs(iovAddr, iovCount) == -1)
+			return -1;
+
+		return transferFile(file, iovCount, true);
+	}
+
+	/**
+	 * Handle the writev() system call. Returns -1 unless every byte was
+	 * written.
+	 */
+	private int handleWritev(int fd, int iovAddr, int iovCount) {
+		OpenFile file = getFile(fd);
+		if (file == null)
+			return -1;
+
+		int requested = readIovecs(iovAddr, iovCount);
+		if (requested == -1)
+			return -1;
+
+		int amount = transferFile(file, iovCount, false);
+		return (amount == requested) ? amount : -1;
+	}
+
+	/**
+	 * Copy an array of <i>iovCount</i> <tt>struct iovec</tt>s from user
+	 * memory into <tt>ioVector</tt>.
+	 * 
+	 * @return the total length of the buffers, or -1 if the array is not
+	 * readable or is invalid.
+	 */
+	private int readIovecs(int iovAddr, int iovCount) {
+		if (iovCount < 0 || iovCount > maxIovecs)
+			return -1;
+
+		int size = iovCount * iovecSize;
+		if (readVirtualMemory(iovAddr, iovBuffer, 0, size) != size)
+			return -1;
+
+		long total = 0;
+		for (int i = 0; i < iovCount; i++) {
+			int base = Lib.bytesToInt(iovBuffer, i * iovecSize);
+			int length = Lib.bytesToInt(iovBuffer, i * iovecSize + 4);
+			if (length < 0)
+				return -1;
+
+			ioVector[2 * i] = base;
+			ioVector[2 * i + 1] = length;
+			total += length;
+		}
+
+		if (total > Integer.MAX_VALUE)
+			return -1;
+
+		return (int) total;
+	}
+
+	/**
+	 * Handle the close() system call.
+	 */
+	private int handleClose(int fd) {
+		OpenFile file = getFile(fd);
+		if (file == null)
+			return -1;
+
+		fileTable[fd] = null;
+		file.close();
 
 		return 0;
 	}
 
+	/**
+	 * Handle the unlink() system call.
+	 */
+	private int handleUnlink(int nameAddr) {
+		String name = readVirtualMemoryString(nameAddr, maxNameLength);
+		if (name == null)
+			return -1;
+
+		return ThreadedKernel.fileSystem.remove(name) ? 0 : -1;
+	}
+
+	/**
+	 * Close every open file of this process.
+	 */
+	private void closeFiles() {
+		for (int fd = 0; fd < fileTable.length; fd++) {
+			if (fileTable[fd] != null) {
+				fileTable[fd].close();
+				fileTable[fd] = null;
+			}
+		}
+	}
+
+	/**
+	 * Return the file open as <i>fd</i>, or <tt>null</tt> if <i>fd</i> is not
+	 * an open file descriptor.
+	 */
+	private OpenFile getFile(int fd) {
+		if (fd < 0 || fd >= fileTable.length)
+			return null;
+
+		return fileTable[fd];
+	}
+
 	private static final int syscallHalt = 0, syscallExit = 1, syscallExec = 2,
 			syscallJoin = 3, syscallCreate = 4, syscallOpen = 5,
 			syscallRead = 6, syscallWrite = 7, syscallClose = 8,
-			syscallUnlink = 9;
+			syscallUnlink = 9, syscallReadv = 13, syscallWritev = 14;
 
 	/**
 	 * Handle a syscall exception. Called by <tt>handleException()</tt>. The
@@ -431,6 +941,16 @@ public class UserProcess {
 	 * <td>9</td>
 	 * <td><tt>int  unlink(char *name);</tt></td>
 	 * </tr>
+	 * <tr>
+	 * <td>13</td>
+	 * <td><tt>int  readv(int fd, struct iovec *iov, int iovcnt);
+	 * 								</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>14</td>
+	 * <td><tt>int  writev(int fd, struct iovec *iov, int iovcnt);
+	 * 								</tt></td>
+	 * </tr>
 	 * </table>
 	 * 
 	 * @param syscall the syscall number.
@@ -446,6 +966,26 @@ public class UserProcess {
 			return handleHalt();
 		case syscallExit:
 			return handleExit(a0);
+		case syscallExec:
+			return handleExec(a0, a1, a2);
+		case syscallJoin:
+			return handleJoin(a0, a1);
+		case syscallCreate:
+			return handleCreate(a0);
+		case syscallOpen:
+			return handleOpen(a0);
+		case syscallRead:
+			return handleRead(a0, a1, a2);
+		case syscallWrite:
+			return handleWrite(a0, a1, a2);
+		case syscallClose:
+			return handleClose(a0);
+		case syscallUnlink:
+			return handleUnlink(a0);
+		case syscallReadv:
+			return handleReadv(a0, a1, a2);
+		case syscallWritev:
+			return handleWritev(a0, a1, a2);
 
 		default:
 			Lib.debug(dbgProcess, "Unknown syscall " + syscall);
@@ -478,7 +1018,7 @@ public class UserProcess {
 		default:
 			Lib.debug(dbgProcess, "Unexpected exception: "
 					+ Processor.exceptionNames[cause]);
-			Lib.assertNotReached("Unexpected exception");
+			terminate(-1, false);
 		}
 	}
 
@@ -496,12 +1036,63 @@ public class UserProcess {
 
 	/** The thread that executes the user-level program. */
         protected UThread thread;
+
+	/** The process ID, which is 0 for the first process. */
+	protected int processID;
+
+	/** The children of this process that have not been joined yet. */
+	private HashMap<Integer, UserProcess> children = new HashMap<Integer, UserProcess>();
+
+	private int exitStatus;
+
+	/** <tt>false</tt> if this process died of an unhandled exception. */
+	private boolean exitedNormally;
     
+	/**
+	 * The open files of this process, indexed by file descriptor. File
+	 * descriptors 0 and 1 start out as the console.
+	 */
+	protected OpenFile[] fileTable = new OpenFile[maxOpenFiles];
+
+	/** The scatter list used for file I/O, reused by every transfer. */
+	private int[] ioOffsets = new int[maxIOSegments], ioLengths = new int[maxIOSegments];
+
+	private int ioSegments = 0;
+
+	/**
+	 * The user buffers of the current transfer, as pairs of virtual address
+	 * and length.
+	 */
+	private int[] ioVector = new int[2 * maxIovecs];
+
+	/** The <tt>struct iovec</tt> array of a readv() or writev() call. */
+	private byte[] iovBuffer = new byte[maxIovecs * iovecSize];
+
+	private static final int maxIOSegments = 16;
+
+	private static final int maxOpenFiles = 16;
+
+	/** The largest array of buffers readv() and writev() accept. */
+	private static final int maxIovecs = 16;
+
+	/** The size of a <tt>struct iovec</tt> in user memory. */
+	private static final int iovecSize = 8;
+
+	private static final int maxNameLength = 256;
+
 	private int initialPC, initialSP;
 
 	private int argc, argv;
 
 	private static final int pageSize = Processor.pageSize;
 
+	private static int nextProcessID = 0;
+
+	/** The number of processes that have started and not yet exited. */
+	private static int numRunning = 0;
+
+	/** Protects <tt>nextProcessID</tt> and <tt>numRunning</tt>. */
+	private static Lock processLock = new Lock("UserProcess.processLock");
+
 	private static final char dbgProcess = 'a';
 }